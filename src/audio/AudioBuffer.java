@@ -3,35 +3,124 @@ package audio;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
+/**
+ * Datas read by a codec, stored in a heap array or in a direct buffer
+ */
 public class AudioBuffer
 {
 	private final byte[] audioData;
+	private ByteBuffer directData;
 	private final int until;
 	private final Codec writtenBy;
 	private int openALBufferID = -1;
+	/**
+	 * Samples of the buffer where a looping source started its stream again, and how many have been played
+	 */
+	private int[] loopPoints = null;
+	private int playedLoops = 0;
 
 	public AudioBuffer(byte[] datas, int until, Codec codec)
 	{
 		this.audioData = datas;
+		this.directData = null;
 		this.until = until;
 		this.writtenBy = codec;
 	}
 
+	/**
+	 * Wraps the datas between the position 0 and the limit of datas
+	 */
+	public AudioBuffer(ByteBuffer datas, Codec codec)
+	{
+		this.audioData = null;
+		this.directData = datas;
+		this.until = datas.limit();
+		this.writtenBy = codec;
+	}
+
 	public ByteBuffer toByteBuffer()
 	{
+		if (this.directData != null)
+			return this.getDirectData();
+
 		ByteBuffer buf = ByteBuffer.allocateDirect(this.until);
 		buf.order(ByteOrder.nativeOrder());
-		buf.put(this.audioData, 0, this.until);
+		return this.toByteBuffer(buf);
+	}
+
+	/**
+	 * Copies the datas at the start of buf
+	 * @return buf, ready to be read
+	 */
+	ByteBuffer toByteBuffer(ByteBuffer buf)
+	{
+		buf.clear();
+		if (this.directData != null)
+			buf.put(this.getDirectData());
+		else
+			buf.put(this.audioData, 0, this.until);
 		buf.flip();
 
 		return buf;
 	}
 
+	/**
+	 * @return true if the datas are in a direct buffer, which can be given to OpenAL without copy
+	 */
+	public boolean isDirect()
+	{
+		return this.directData != null;
+	}
+
+	/**
+	 * @return a view of the direct datas, from 0 to {@link #getLimit()}, or null if the datas are in an array
+	 */
+	ByteBuffer getDirectData()
+	{
+		if (this.directData == null)
+			return null;
+
+		ByteBuffer view = this.directData.duplicate().order(ByteOrder.nativeOrder());
+		view.position(0).limit(this.until);
+		return view;
+	}
+
+	/**
+	 * If the datas are in a direct buffer, they are copied in a new array at each call
+	 */
 	public byte[] getAudioDatas()
 	{
+		if (this.directData != null)
+		{
+			byte[] copy = new byte[this.until];
+			this.getDirectData().get(copy);
+			return copy;
+		}
 		return this.audioData;
 	}
 
+	/**
+	 * Gives the direct buffer back to the pool, once OpenAL and the callbacks are done with it
+	 * The datas can't be read anymore
+	 */
+	void release()
+	{
+		if (this.directData != null)
+			DirectBufferPool.release(this.directData);
+		this.directData = null;
+	}
+
+	/**
+	 * @return the memory used by the datas, in bytes : the copy of OpenAL,
+	 * and the array or the direct buffer unless it maps a file
+	 */
+	long getMemorySize()
+	{
+		long own = this.audioData != null ? this.audioData.length :
+				   this.directData != null && !this.directData.isReadOnly() ? this.directData.capacity() : 0;
+		return this.until + own;
+	}
+
 	public int getLimit()
 	{
 		return this.until;
@@ -42,6 +131,22 @@ public class AudioBuffer
 		return this.writtenBy;
 	}
 
+	void setLoopPoints(int[] points)
+	{
+		this.loopPoints = points;
+	}
+	/**
+	 * @return the next loop point not played yet, or -1
+	 */
+	int getNextLoopPoint()
+	{
+		return this.loopPoints == null || this.playedLoops >= this.loopPoints.length ? -1 : this.loopPoints[this.playedLoops];
+	}
+	void loopPointPlayed()
+	{
+		this.playedLoops ++;
+	}
+
 	public void setOpenALBufferID(int openALBufferID)
 	{
 		this.openALBufferID = openALBufferID;
@@ -2,13 +2,19 @@ package audio;
 
 import static org.lwjgl.openal.ALC10.*;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
 
 import org.lwjgl.openal.*;
 
+import util.ByteArrayStreamSource;
 import util.InputStreamSource;
 
 public class AudioSystem
@@ -29,15 +35,31 @@ public class AudioSystem
 					  MODEL_EXPONENT_DISTANCE = AL11.AL_EXPONENT_DISTANCE,
 					  MODEL_EXPONENT_DISTANCE_CLAMPED = AL11.AL_EXPONENT_DISTANCE_CLAMPED;
 
+	/**
+	 * Qualities of the resampling to the rate of the device
+	 * @see #setResampling(int)
+	 */
+	public static final int RESAMPLING_OFF = 0,
+							RESAMPLING_FAST = 1,
+							RESAMPLING_MEDIUM = 2,
+							RESAMPLING_BEST = 3;
+
 	static float masterVolume = 1;
 
-	private static LinkedList<Source> sources = new LinkedList<>();
+	/**
+	 * Changed by the CommandThread, copied by any thread in {@link #getSources()}
+	 */
+	private static final ConcurrentSkipListMap<Integer, Source> sources = new ConcurrentSkipListMap<>();
 
-	private static Class<? extends Codec> defaultCodec = CodecWav.class;
+	/**
+	 * null to detect the codec of each stream
+	 */
+	private static Class<? extends Codec> defaultCodec = null;
 
 	private static int defaultStreamingBufferSize = 262144,
 					   defaultSoundBufferSize = 2097152,
-					   defaultNumberOfStreamingBuffers = 3;
+					   defaultNumberOfStreamingBuffers = 3,
+					   defaultResidentBufferSize = 16384;
 
 	private static int lastError;
 
@@ -45,17 +67,37 @@ public class AudioSystem
 
 	private static boolean isInitialized;
 
+	private static volatile boolean commandCoalescing = false;
+
+	private static volatile boolean dithering = false;
+
+	private static volatile boolean floatOutputSupported = false, floatOutput = true;
+
+	private static volatile int resampling = RESAMPLING_OFF, deviceSamplerate = 0;
+
+	private static volatile boolean autoDownmix = false;
+
 	static void addSource(Source s)
     {
-        sources.add(s);
+        sources.put(s.getOpenALSourceID(), s);
     }
 
+	static void removeSource(Source s)
+	{
+		sources.remove(s.getOpenALSourceID());
+	}
+
 	static Iterator<Source> getSourcesIterator()
 	{
-		return sources.iterator();
+		return sources.values().iterator();
 	}
 
 	private static long context, device;
+
+	static long getContext()
+	{
+		return context;
+	}
 	/**
 	 * Initialize the system
 	 * Called if necessary by any other function that a command
@@ -75,7 +117,9 @@ public class AudioSystem
 		alcMakeContextCurrent(context);
 
 		ALCCapabilities alcCapabilities = ALC.createCapabilities(device);
-		AL.createCapabilities(alcCapabilities);
+		ALCapabilities alCapabilities = AL.createCapabilities(alcCapabilities);
+		floatOutputSupported = alCapabilities.AL_EXT_float32;
+		deviceSamplerate = alcGetInteger(device, ALC_FREQUENCY);
 
 		AL10.alListener3f(AL10.AL_POSITION, 0,0,0);
 		AL10.alListener3f(AL10.AL_VELOCITY, 0,0,0);
@@ -102,7 +146,7 @@ public class AudioSystem
 	 */
 	public static void quit()
 	{
-		Command.executeInThread(new Command.CommandCleanUp());
+		Command.submitAsync(new Command.CommandCleanUp()).join();
 		alcDestroyContext(context);
 		alcCloseDevice(device);
 	}
@@ -121,7 +165,14 @@ public class AudioSystem
 	 */
 	public static ManualSource newManualSource()
 	{
-		return (ManualSource) Command.executeInThread(new Command.CommandNewSource()).source;
+		return newManualSourceAsync().join();
+	}
+	/**
+	 * Non-blocking version of {@link #newManualSource()}
+	 */
+	public static CompletableFuture<ManualSource> newManualSourceAsync()
+	{
+		return Command.submitAsync(new Command.CommandNewSource(), c -> (ManualSource) c.source);
 	}
 
 	/**
@@ -134,25 +185,49 @@ public class AudioSystem
 
 	/**
 	 * Creates a new source and starts loading the stream
+	 * The source is returned once its codec is opened, so its format ({@link AutomaticSource#getSampleRate()}...) is known
 	 * If bufferSize is 0, uses {@link #defaultStreamingBufferSize}
 	 * If bufferNumber is 0, uses {@link #defaultNumberOfStreamingBuffers}
-	 * If codec is null, uses {@link #defaultCodec}
+	 * If codec is null, uses {@link #defaultCodec}, or detects it if it is null
 	 * Error {@link #ERROR_INVALID_VALUE} if bufferSize or bufferNumber are negative or volume isn't between 0 and 1
 	 * Error {@link #ERROR_CANT_READ_STREAM} can be thrown while loading, but the source will be created
 	 * @return the ID of the source created or -1 if an error occured
 	 */
 	public static StreamingSource newStreamingSource(InputStreamSource streamSource, int bufferSize, int bufferNumber, Class<? extends Codec> codec)
+	{
+		return newStreamingSource(streamSource, bufferSize, bufferNumber, codec, false);
+	}
+	/**
+	 * Same as {@link #newStreamingSource(InputStreamSource, int, int, Class)}
+	 * @param mono true to downmix the datas to mono while they are decoded, so the source can be positioned
+	 */
+	public static StreamingSource newStreamingSource(InputStreamSource streamSource, int bufferSize, int bufferNumber, Class<? extends Codec> codec, boolean mono)
+	{
+		return newStreamingSourceAsync(streamSource, bufferSize, bufferNumber, codec, mono).join();
+	}
+	/**
+	 * Non-blocking version of {@link #newStreamingSource(InputStreamSource, int, int, Class)}
+	 * The future is completed with null if an error occured
+	 */
+	public static CompletableFuture<StreamingSource> newStreamingSourceAsync(InputStreamSource streamSource, int bufferSize, int bufferNumber, Class<? extends Codec> codec)
+	{
+		return newStreamingSourceAsync(streamSource, bufferSize, bufferNumber, codec, false);
+	}
+	/**
+	 * Non-blocking version of {@link #newStreamingSource(InputStreamSource, int, int, Class, boolean)}
+	 */
+	public static CompletableFuture<StreamingSource> newStreamingSourceAsync(InputStreamSource streamSource, int bufferSize, int bufferNumber, Class<? extends Codec> codec, boolean mono)
 	{
 		if (bufferSize < 0 || bufferNumber < 0)
 		{
 			setError(ERROR_INVALID_VALUE);
-			return null;
+			return CompletableFuture.completedFuture(null);
 		}
 
-		return (StreamingSource) Command.executeInThread(new Command.CommandNewSource(streamSource,
+		return Command.submitAsync(new Command.CommandNewSource(streamSource,
 				bufferSize == 0 ? defaultStreamingBufferSize : bufferSize,
 				bufferNumber == 0 ? defaultNumberOfStreamingBuffers : bufferNumber,
-				codec == null ? defaultCodec : codec)).source;
+				codec == null ? defaultCodec : codec, mono), c -> (StreamingSource) c.source).thenCompose(AudioSystem::whenOpened);
 	}
 
 	/**
@@ -165,26 +240,131 @@ public class AudioSystem
 
 	/**
 	 * Creates a new sound
+	 * The source is returned once its codec is opened, so its format ({@link AutomaticSource#getSampleRate()}...) is known
 	 * If bufferSize is 0, uses {@link #defaultStreamingBufferSize}
 	 * If bufferSize is negative, reads the sound infinitely
-	 * If codec is null, uses {@link #defaultCodec}
+	 * If codec is null, uses {@link #defaultCodec}, or detects it if it is null
 	 * Error {@link #ERROR_INVALID_VALUE} if volume isn't between 0 and 1
 	 * Error {@link #ERROR_CANT_READ_STREAM} can be thrown while loading, but the source will be created
 	 * @return the ID of the source created or -1 if an error occured
 	 */
 	public static SoundSource newSoundSource(InputStreamSource streamSource, int bufferSize, Class<? extends Codec> codec)
 	{
-		return (SoundSource) Command.executeInThread(new Command.CommandNewSource(streamSource,
+		return newSoundSource(streamSource, bufferSize, codec, false);
+	}
+	/**
+	 * Same as {@link #newSoundSource(InputStreamSource, int, Class)}
+	 * @param mono true to downmix the datas to mono while they are decoded, so the source can be positioned
+	 */
+	public static SoundSource newSoundSource(InputStreamSource streamSource, int bufferSize, Class<? extends Codec> codec, boolean mono)
+	{
+		return newSoundSourceAsync(streamSource, bufferSize, codec, mono).join();
+	}
+	/**
+	 * Non-blocking version of {@link #newSoundSource(InputStreamSource, int, Class)}
+	 */
+	public static CompletableFuture<SoundSource> newSoundSourceAsync(InputStreamSource streamSource, int bufferSize, Class<? extends Codec> codec)
+	{
+		return newSoundSourceAsync(streamSource, bufferSize, codec, false);
+	}
+	/**
+	 * Non-blocking version of {@link #newSoundSource(InputStreamSource, int, Class, boolean)}
+	 */
+	public static CompletableFuture<SoundSource> newSoundSourceAsync(InputStreamSource streamSource, int bufferSize, Class<? extends Codec> codec, boolean mono)
+	{
+		return Command.submitAsync(new Command.CommandNewSource(streamSource,
 				bufferSize == 0 ? defaultSoundBufferSize : bufferSize, 0,
-				codec == null ? defaultCodec : codec)).source;
+				codec == null ? defaultCodec : codec, mono), c -> (SoundSource) c.source).thenCompose(AudioSystem::whenOpened);
 	}
 
 	/**
-	 * @return an array containing the ids of all sources declared and not deleted
+	 * Waits until the new source has opened its codec, so its format is known once it is returned
+	 */
+	private static <S extends AutomaticSource<S>> CompletableFuture<S> whenOpened(S source)
+	{
+		return source == null ? CompletableFuture.completedFuture(null) : source.whenOpened();
+	}
+
+	/**
+	 * @return newResidentSource(streamSource, 0, 0, null, mono)
+	 */
+	public static StreamingSource newResidentSource(InputStreamSource streamSource, boolean mono)
+	{
+		return newResidentSource(streamSource, 0, 0, null, mono);
+	}
+	/**
+	 * Reads the whole stream once and keeps its bytes in memory, still encoded (see {@link ByteArrayStreamSource})
+	 * The source decodes them in streaming buffers only while it plays, and drops them once it has played to its end
+	 * The memory used by the datas depends on the sources playing rather than on the sources created,
+	 * for many short sounds like voices
+	 * The codec is only opened by the loadings of the plays, and the decoded datas are never kept in the {@link DiskCache}
+	 * If bufferSize is 0, uses {@link #defaultResidentBufferSize}, smaller than the streaming one
+	 * If bufferNumber is 0, uses {@link #defaultNumberOfStreamingBuffers}
+	 * If codec is null, uses {@link #defaultCodec}, or detects it if it is null
+	 * Error {@link #ERROR_INVALID_VALUE} if bufferSize or bufferNumber are negative
+	 * Error {@link #ERROR_CANT_READ_STREAM} if the stream can't be read
+	 * @return the source created or null if an error occured
+	 */
+	public static StreamingSource newResidentSource(InputStreamSource streamSource, int bufferSize, int bufferNumber, Class<? extends Codec> codec, boolean mono)
+	{
+		return newResidentSourceAsync(streamSource, bufferSize, bufferNumber, codec, mono).join();
+	}
+	/**
+	 * Non-blocking version of {@link #newResidentSource(InputStreamSource, int, int, Class, boolean)}
+	 * The stream is read by the common pool
+	 * The future is completed with null if an error occured
+	 */
+	public static CompletableFuture<StreamingSource> newResidentSourceAsync(InputStreamSource streamSource, int bufferSize, int bufferNumber, Class<? extends Codec> codec, boolean mono)
+	{
+		if (bufferSize < 0 || bufferNumber < 0)
+		{
+			setError(ERROR_INVALID_VALUE);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		return CompletableFuture.supplyAsync(() -> streamSource instanceof ByteArrayStreamSource ? (ByteArrayStreamSource)streamSource : ByteArrayStreamSource.read(streamSource))
+				.thenCompose(datas -> {
+					if (datas == null)
+					{
+						setError(ERROR_CANT_READ_STREAM);
+						return CompletableFuture.completedFuture(null);
+					}
+					return Command.submitAsync(new Command.CommandNewSource(datas,
+							bufferSize == 0 ? defaultResidentBufferSize : bufferSize,
+							bufferNumber == 0 ? defaultNumberOfStreamingBuffers : bufferNumber,
+							codec == null ? defaultCodec : codec, mono, true), c -> (StreamingSource) c.source);
+				});
+	}
+
+	/**
+	 * @return a copy of the list of all sources declared and not deleted, sorted by id
 	 */
 	public static List<Source> getSources()
 	{
-		return Collections.unmodifiableList(sources);
+		return Collections.unmodifiableList(new ArrayList<>(sources.values()));
+	}
+
+	/**
+	 * Collects the changes made by filler on the given {@link Batch} and sends them as one command
+	 * They are all applied in the same loop of the system, so they become audible together
+	 * Waits until the changes are applied
+	 */
+	public static void batch(Consumer<Batch> filler)
+	{
+		batchAsync(filler).join();
+	}
+	/**
+	 * Non-blocking version of {@link #batch(Consumer)}
+	 * @return a future completed once all changes have been applied
+	 */
+	public static CompletableFuture<Void> batchAsync(Consumer<Batch> filler)
+	{
+		Batch batch = new Batch();
+		filler.accept(batch);
+		if (batch.getCommands().isEmpty())
+			return CompletableFuture.completedFuture(null);
+
+		return Command.submitAsync(new Command.CommandBatch(batch));
 	}
 
 	/**
@@ -193,21 +373,35 @@ public class AudioSystem
 	 * Error {@link #ERROR_INVALID_VALUE} if volume isn't between 0 and 1
 	 */
 	public static void setMasterVolume(float volume)
+	{
+		setMasterVolumeAsync(volume).join();
+	}
+	/**
+	 * Non-blocking version of {@link #setMasterVolume(float)}
+	 */
+	public static CompletableFuture<Void> setMasterVolumeAsync(float volume)
 	{
 		if (volume < 0 || volume > 1)
 		{
 			setError(ERROR_INVALID_VALUE);
-			return;
+			return CompletableFuture.completedFuture(null);
 		}
 
-		Command.executeInThread(new Command.CommandMasterVolume(volume));
+		return Command.submitAsync(new Command.CommandMasterVolume(volume));
 	}
 	/**
 	 * @return the master volume, between 0 and 1
 	 */
 	public static float getMasterVolume()
 	{
-		return Command.executeInThread(new Command.CommandMasterVolume()).value;
+		return getMasterVolumeAsync().join();
+	}
+	/**
+	 * Non-blocking version of {@link #getMasterVolume()}
+	 */
+	public static CompletableFuture<Float> getMasterVolumeAsync()
+	{
+		return Command.submitAsync(new Command.CommandMasterVolume(), c -> c.value);
 	}
 
 	/**
@@ -253,12 +447,28 @@ public class AudioSystem
 	}
 	/**
 	 * Sets the default codec class used to write datas
-	 * If c is null, the ancien value is kept
+	 * If c is null (default), the codec of each stream is detected from its first bytes
+	 * (see {@link #registerCodec(Class, CodecProbe, CodecFactory)})
 	 */
 	public static void setDefaultCodec(Class<? extends Codec> c)
 	{
-		if (c != null)
-			defaultCodec = c;
+		defaultCodec = c;
+	}
+	/**
+	 * Registers a codec, so it is created without reflection, and is chosen for the streams recognized by probe
+	 * Wav, ogg and mp3 are already registered
+	 * @param probe recognizes the format from the first bytes of a stream, or null if it can't be recognized
+	 * @param factory creates the codec, usually its constructor
+	 */
+	public static <C extends Codec> void registerCodec(Class<C> codecClass, CodecProbe probe, CodecFactory factory)
+	{
+		if (codecClass == null || factory == null)
+		{
+			setError(ERROR_INVALID_VALUE);
+			return;
+		}
+
+		CodecRegistry.register(codecClass, probe, factory);
 	}
 	/**
 	 * @return the default codec class used when a source is created
@@ -268,7 +478,291 @@ public class AudioSystem
 		return defaultCodec;
 	}
 
+	/**
+	 * Enables or disables the coalescing of SET commands
+	 * When enabled, a volume, float or vector SET on a source replaces the value
+	 * of a SET of the same property still waiting to be handled instead of being queued,
+	 * so only the latest value reaches OpenAL
+	 * Disabled by default
+	 */
+	public static void setCommandCoalescing(boolean coalescing)
+	{
+		commandCoalescing = coalescing;
+	}
+	/**
+	 * @return true if SET commands are coalescing
+	 */
+	public static boolean isCommandCoalescing()
+	{
+		return commandCoalescing;
+	}
+	/**
+	 * @return the number of commands that have been merged into a pending one since the start
+	 */
+	public static long getCoalescedCommandNumber()
+	{
+		return Command.CoalescableCommand.getCoalescedNumber();
+	}
 
+	/**
+	 * Sets the executor used to decode the datas of the sources
+	 * If executor is null, a fixed pool of {@link #setDecoderThreads(int)} threads is used
+	 * The executor isn't shut down by the system
+	 */
+	public static void setDecoderExecutor(ExecutorService executor)
+	{
+		DecoderPool.setExecutor(executor);
+	}
+	/**
+	 * Sets the number of threads of the default decoder pool
+	 * By default, the number of available processors
+	 * Error {@link #ERROR_INVALID_VALUE} if threads isn't positive
+	 */
+	public static void setDecoderThreads(int threads)
+	{
+		if (threads <= 0)
+		{
+			setError(ERROR_INVALID_VALUE);
+			return;
+		}
+
+		DecoderPool.setThreadNumber(threads);
+	}
+	/**
+	 * Decodes each loading in its own virtual thread
+	 * @return false if the JVM doesn't support virtual threads, the current executor is kept
+	 */
+	public static boolean useVirtualThreadDecoders()
+	{
+		return DecoderPool.useVirtualThreads();
+	}
+	/**
+	 * @return the number of loadings waiting for a decoder thread
+	 */
+	public static int getDecoderQueueDepth()
+	{
+		return DecoderPool.getQueueDepth();
+	}
+	/**
+	 * @return the total time spent decoding since the start, in nanoseconds
+	 */
+	public static long getTotalDecodeTime()
+	{
+		return DecoderPool.getDecodeTime();
+	}
+	/**
+	 * @return the number of loadings decoded since the start
+	 */
+	public static long getDecodeNumber()
+	{
+		return DecoderPool.getDecodeNumber();
+	}
+
+	/**
+	 * Sets how many bytes of native memory the pool of upload buffers can keep while they aren't used
+	 * 64 MB by default
+	 * Error {@link #ERROR_INVALID_VALUE} if bytes is negative
+	 */
+	public static void setUploadBufferPoolSize(long bytes)
+	{
+		if (bytes < 0)
+		{
+			setError(ERROR_INVALID_VALUE);
+			return;
+		}
+
+		DirectBufferPool.setMaxResidentBytes(bytes);
+	}
+	/**
+	 * @return the number of bytes of native memory currently kept by the pool of upload buffers
+	 */
+	public static long getUploadBufferPoolResidentBytes()
+	{
+		return DirectBufferPool.getResidentBytes();
+	}
+	/**
+	 * @return the number of upload buffers reused from the pool
+	 */
+	public static long getUploadBufferPoolHits()
+	{
+		return DirectBufferPool.getHits();
+	}
+	/**
+	 * @return the number of upload buffers that had to be allocated
+	 */
+	public static long getUploadBufferPoolMisses()
+	{
+		return DirectBufferPool.getMisses();
+	}
+
+	/**
+	 * Sets the number of bytes of decoded datas kept for sound sources whose stream has a key
+	 * (see {@link util.InputStreamSource#getCacheKey()})
+	 * Datas used by a source are always kept, the others are deleted least recently used first
+	 * Error {@link #ERROR_INVALID_VALUE} if bytes is negative
+	 */
+	public static void setSoundCacheSize(long bytes)
+	{
+		if (bytes < 0)
+		{
+			setError(ERROR_INVALID_VALUE);
+			return;
+		}
+
+		Command.submitAsync(new Command.CommandSoundCacheSize(bytes)).join();
+	}
+	/**
+	 * @return the number of bytes of decoded datas in the cache of sound sources
+	 */
+	public static long getSoundCacheSize()
+	{
+		return SoundCache.getSize();
+	}
+	/**
+	 * @return the number of sound sources which found their datas in the cache
+	 */
+	public static long getSoundCacheHits()
+	{
+		return SoundCache.getHits();
+	}
+	/**
+	 * @return the number of sound sources which had to load datas that could be cached
+	 */
+	public static long getSoundCacheMisses()
+	{
+		return SoundCache.getMisses();
+	}
+
+	/**
+	 * Keeps the decoded datas of compressed streams in directory, so they are decoded only once,
+	 * even between two runs. Only streams which can be read several times and have a key are cached
+	 * (see {@link util.InputStreamSource#isRepeatable()} and {@link util.InputStreamSource#getCacheKey()})
+	 * When the directory is above maxBytes, the least recently used files are deleted
+	 * If directory is null, nothing is cached (default)
+	 * Error {@link #ERROR_INVALID_VALUE} if maxBytes is negative
+	 */
+	public static void setDiskCache(File directory, long maxBytes)
+	{
+		if (maxBytes < 0)
+		{
+			setError(ERROR_INVALID_VALUE);
+			return;
+		}
+
+		DiskCache.setDirectory(directory, maxBytes);
+	}
+	/**
+	 * @return the number of bytes of decoded datas in the cache directory
+	 */
+	public static long getDiskCacheSize()
+	{
+		return DiskCache.getSize();
+	}
+
+	/**
+	 * Sets the maximum memory used by the datas of all sources, in bytes : their arrays,
+	 * their direct buffers and the copies of OpenAL
+	 * Above it, the unused datas of the cache of sounds are deleted, then stopped sound sources drop
+	 * their datas, least recently played first. They load them again when played
+	 * Only sources whose stream can be read several times drop their datas (see {@link util.InputStreamSource#isRepeatable()})
+	 * No limit by default
+	 * Error {@link #ERROR_INVALID_VALUE} if bytes is negative
+	 */
+	public static void setMemoryBudget(long bytes)
+	{
+		if (bytes < 0)
+		{
+			setError(ERROR_INVALID_VALUE);
+			return;
+		}
+
+		Command.submitAsync(new Command.CommandMemoryBudget(bytes)).join();
+	}
+	/**
+	 * @return the memory used by the datas of all sources and by the pool of upload buffers, in bytes
+	 */
+	public static long getMemoryUsage()
+	{
+		return MemoryBudget.getUsage();
+	}
+
+	/**
+	 * Adds a triangular noise when samples of more than 16 bits are reduced, instead of truncating them
+	 * Used by the codecs created afterwards. Disabled by default
+	 */
+	public static void setDithering(boolean dither)
+	{
+		dithering = dither;
+	}
+	public static boolean isDithering()
+	{
+		return dithering;
+	}
+
+	/**
+	 * @return true if the device reported AL_EXT_float32 at {@link #init()}, so float samples can be given to OpenAL
+	 */
+	public static boolean isFloatOutputSupported()
+	{
+		return floatOutputSupported;
+	}
+	/**
+	 * Allows the codecs created afterwards to give float samples to OpenAL, if it is supported
+	 * Enabled by default
+	 */
+	public static void setFloatOutput(boolean enabled)
+	{
+		floatOutput = enabled;
+	}
+	/**
+	 * @return true if codecs should give float samples rather than reducing them to 16 bits
+	 */
+	public static boolean isFloatOutput()
+	{
+		return floatOutput && floatOutputSupported;
+	}
+
+	/**
+	 * Resamples the datas of the codecs created afterwards to the rate of the device when they are decoded,
+	 * instead of letting OpenAL do it at each mix
+	 * Better qualities use longer filters, so more CPU while decoding. {@link #RESAMPLING_OFF} by default
+	 * Sample positions of resampled sources are counted at the rate of the device
+	 * Error {@link #ERROR_INVALID_VALUE} if quality isn't one of the RESAMPLING constants
+	 */
+	public static void setResampling(int quality)
+	{
+		if (quality < RESAMPLING_OFF || quality > RESAMPLING_BEST)
+		{
+			setError(ERROR_INVALID_VALUE);
+			return;
+		}
+		resampling = quality;
+	}
+	public static int getResampling()
+	{
+		return resampling;
+	}
+	/**
+	 * @return the samplerate of the device, or 0 if it is unknown or the system isn't initialized
+	 */
+	public static int getDeviceSamplerate()
+	{
+		return deviceSamplerate;
+	}
+
+	/**
+	 * Sounds with several channels given a position are reloaded in mono, as OpenAL only places mono datas
+	 * A stopped sound is reloaded at once, a playing one at its next play. Disabled by default
+	 * @see #newSoundSource(InputStreamSource, int, Class, boolean)
+	 */
+	public static void setAutoDownmix(boolean enabled)
+	{
+		autoDownmix = enabled;
+	}
+	public static boolean isAutoDownmix()
+	{
+		return autoDownmix;
+	}
 
 	static void setError(int errorID)
 	{
@@ -288,10 +782,24 @@ public class AudioSystem
 
 	public static void setAttenationMod(int atteMod)
 	{
-		Command.executeInThread(new Command.CommandAttenuationMod(atteMod));
+		setAttenationModAsync(atteMod).join();
+	}
+	/**
+	 * Non-blocking version of {@link #setAttenationMod(int)}
+	 */
+	public static CompletableFuture<Void> setAttenationModAsync(int atteMod)
+	{
+		return Command.submitAsync(new Command.CommandAttenuationMod(atteMod));
 	}
 	public static int getAttenationMod()
 	{
-		return Command.executeInThread(new Command.CommandAttenuationMod()).value;
+		return getAttenationModAsync().join();
+	}
+	/**
+	 * Non-blocking version of {@link #getAttenationMod()}
+	 */
+	public static CompletableFuture<Integer> getAttenationModAsync()
+	{
+		return Command.submitAsync(new Command.CommandAttenuationMod(), c -> c.value);
 	}
 }
@@ -1,6 +1,7 @@
 package audio;
 
 import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
 
 import util.InputStreamSource;
 import util.Logger;
@@ -8,21 +9,55 @@ import util.Logger;
 abstract class AutomaticSource<T extends AutomaticSource<T>> extends Source<T>
 {
 	private boolean loading = false;
+	/**
+	 * The codec asked at creation, null to detect it from the stream
+	 */
 	private final Class<? extends Codec> codecClass;
+	private volatile Class<? extends Codec> detectedCodecClass;
 	private final int bufferSize;
 	private final InputStreamSource streamSource;
-	private int loopNumber = 0;
-	private Codec currentCodec;
+	private volatile int loopNumber = 0;
+	/**
+	 * true to downmix the datas to mono when they are decoded
+	 */
+	private volatile boolean mono;
+	/**
+	 * Written by the loadings, read by the CommandThread
+	 */
+	private volatile Codec currentCodec;
+	/**
+	 * Cancelled loading still using the codec, and the loading asked meanwhile (toSkip, or -1 if none)
+	 * Only used by the CommandThread
+	 */
+	private Loading cancelledLoading;
+	private int deferredSkip = -1;
+	private boolean deferredOpen;
+	/**
+	 * Shadow copy of the codec datas, updated each time the codec changes
+	 * 0 while no codec has been opened : the stream can't be read, or the source is resident and hasn't played yet
+	 */
+	private volatile int channels, samplerate, sampleSize, totalSize;
+	/**
+	 * Completed once the codec datas are known, or once they can't be
+	 */
+	private final CompletableFuture<Void> opened = new CompletableFuture<>();
 
-	AutomaticSource(int sourceID, InputStreamSource streamSource, int bufferSize, Class<? extends Codec> codecClass)
+	AutomaticSource(int sourceID, InputStreamSource streamSource, int bufferSize, Class<? extends Codec> codecClass, boolean mono)
+	{
+		this(sourceID, streamSource, bufferSize, codecClass, mono, true);
+	}
+	/**
+	 * @param load false if the datas are given by another source, so no codec is opened
+	 */
+	AutomaticSource(int sourceID, InputStreamSource streamSource, int bufferSize, Class<? extends Codec> codecClass, boolean mono, boolean load)
 	{
 		super(sourceID);
 		this.streamSource = streamSource;
 		this.bufferSize = bufferSize;
 		this.codecClass = codecClass;
-		this.setNewCodec();
-
-		CommandThread.getThread().addLoading(this, 0);
+		this.mono = mono;
+		if (load) // The codec is opened by the loading
+			CommandThread.getThread().addLoading(this, 0, true);
 	}
 
 	boolean isSourceLoading()
@@ -33,6 +68,35 @@ abstract class AutomaticSource<T extends AutomaticSource<T>> extends Source<T>
 	{
 		this.loading = load;
 	}
+	Loading getCancelledLoading()
+	{
+		return this.cancelledLoading;
+	}
+	void setCancelledLoading(Loading loading)
+	{
+		this.cancelledLoading = loading;
+	}
+	/**
+	 * Remembers a loading asked while the cancelled one is still running
+	 */
+	void deferLoading(int toSkip, boolean open)
+	{
+		this.deferredOpen = this.deferredSkip >= 0 && this.deferredOpen || open;
+		this.deferredSkip = toSkip;
+	}
+	int getDeferredSkip()
+	{
+		return this.deferredSkip;
+	}
+	boolean isDeferredOpen()
+	{
+		return this.deferredOpen;
+	}
+	void clearDeferredLoading()
+	{
+		this.deferredSkip = -1;
+		this.deferredOpen = false;
+	}
 	/**
      * @return The size of the buffer(s) used by the source
      */
@@ -40,7 +104,17 @@ abstract class AutomaticSource<T extends AutomaticSource<T>> extends Source<T>
 	{
 		return this.bufferSize;
 	}
+	/**
+	 * @return the codec used by the source, or null if it hasn't been detected yet
+	 */
 	public Class<? extends Codec> getCodecClass()
+	{
+		return this.codecClass != null ? this.codecClass : this.detectedCodecClass;
+	}
+	/**
+	 * @return the codec asked at the creation of the source, null if it is detected
+	 */
+	Class<? extends Codec> getRequestedCodecClass()
 	{
 		return this.codecClass;
 	}
@@ -49,22 +123,120 @@ abstract class AutomaticSource<T extends AutomaticSource<T>> extends Source<T>
 		return this.streamSource;
 	}
 	/**
-	 * Should only be called if source.canStreamBeRetrieved() has been checked
+	 * @return true if the datas are downmixed to mono when they are decoded
+	 */
+	public boolean isMono()
+	{
+		return this.mono;
+	}
+	/**
+	 * Used by the codecs opened afterwards
+	 */
+	void setMono(boolean mono)
+	{
+		this.mono = mono;
+	}
+	/**
+	 * Should only be called if source.canStreamBeRetrieved() has been checked,
+	 * and only by the loading of the source : opening a codec can read the whole stream (see {@link DiskCache})
 	 */
 	void setNewCodec()
 	{
 		if (this.currentCodec != null)
 			this.currentCodec.quit();
+		Codec codec = null;
 		try
 		{
-			this.currentCodec = this.codecClass.getConstructor(InputStream.class).newInstance(this.streamSource.getStreamBack());
+			InputStream is = null;
+			Class<? extends Codec> c = this.getCodecClass();
+			if (c == null && (c = CodecRegistry.getDetected(this.streamSource)) == null)
+			{ // Reads the first bytes of the stream
+				is = CodecRegistry.peekable(this.streamSource.getStreamBack());
+				c = CodecRegistry.detect(this.streamSource, is);
+			}
+			this.detectedCodecClass = c;
+
+			codec = this.usesDiskCache() ? DiskCache.open(this.streamSource, c) : null;
+			if (codec == null)
+			{
+				codec = CodecRegistry.create(c, is != null ? is : this.streamSource.getStreamBack());
+				if (this.usesDiskCache())
+					codec = DiskCache.record(this.streamSource, codec);
+			}
+			else if (is != null)
+				is.close();
+			if (this.mono) // Before resampling, so only one channel is filtered
+				codec = Downmixer.wrap(codec);
+			codec = Resampler.wrap(codec);
+			this.setCodecDatas(codec);
 		}
 		catch(Exception e)
 		{
 			Logger.warning(e);
 			AudioSystem.setError(AudioSystem.ERROR_CANT_READ_STREAM);
-			this.currentCodec = null;
+			if (codec != null)
+				codec.quit();
+			codec = null;
 		}
+		this.currentCodec = codec;
+		this.opened.complete(null);
+	}
+	/**
+	 * @return false if the decoded datas mustn't be kept in the {@link DiskCache}
+	 */
+	boolean usesDiskCache()
+	{
+		return true;
+	}
+	/**
+	 * Updates the shadow copy of the codec datas
+	 */
+	void setCodecDatas(Codec codec)
+	{
+		this.channels = codec.getChannelsNumber();
+		this.samplerate = codec.getSamplerate();
+		this.sampleSize = codec.getBitsPerSample();
+		this.totalSize = codec.getTotalSize();
+		this.opened.complete(null);
+	}
+	/**
+	 * Copies the codec datas of another source once its codec is opened
+	 */
+	void setCodecDatas(AutomaticSource<?> source)
+	{
+		source.opened.thenRun(() -> {
+			this.channels = source.channels;
+			this.samplerate = source.samplerate;
+			this.sampleSize = source.sampleSize;
+			this.totalSize = source.totalSize;
+			this.opened.complete(null);
+		});
+	}
+	/**
+	 * Called when no codec will be opened for the source, so its creation doesn't wait anymore
+	 */
+	void setOpened()
+	{
+		this.opened.complete(null);
+	}
+	/**
+	 * @return a future completed with the source once its codec datas are known
+	 */
+	CompletableFuture<T> whenOpened()
+	{
+		return this.opened.thenApply(v -> (T)this);
+	}
+	/**
+	 * Should only be called when no loading is using the codec
+	 * If a cancelled loading still runs, the CommandThread closes the codec once it has exited
+	 */
+	void closeCodec()
+	{
+		if (this.cancelledLoading != null)
+			return;
+		if (this.currentCodec != null)
+			this.currentCodec.quit();
+		this.currentCodec = null;
 	}
 	Codec getCurrentCodec()
 	{
@@ -103,7 +275,14 @@ abstract class AutomaticSource<T extends AutomaticSource<T>> extends Source<T>
 	 */
 	public boolean loading()
 	{
-		return Command.executeInThread(new Command.CommandLoading(this)).loading;
+		return this.loadingAsync().join();
+	}
+	/**
+	 * Non-blocking version of {@link #loading()}
+	 */
+	public CompletableFuture<Boolean> loadingAsync()
+	{
+		return Command.submitAsync(new Command.CommandLoading(this), c -> c.loading);
 	}
 
 	 /**
@@ -111,51 +290,80 @@ abstract class AutomaticSource<T extends AutomaticSource<T>> extends Source<T>
      */
     public long samplesToNanoSeconds(long samples)
 	{
-		return samples * 1000000 / this.getCurrentCodec().getSamplerate();
+		int rate = this.samplerate;
+		return rate == 0 ? 0 : samples * 1000000 / rate; // The stream couldn't be read
 	}
     /**
      * Converts a duration into a number of samples
      */
 	public long nanoSecondsToSamples(long nanoseconds)
 	{
-		return nanoseconds * this.getCurrentCodec().getSamplerate() / 1000000;
+		return nanoseconds * this.samplerate / 1000000;
 	}
 
     /**
      * Returns the samplerate of the source.<br>
-	 * @return The samplerate of the input datas of the sound source
+	 * @return The samplerate of the input datas of the sound source, or 0 if the codec couldn't be opened yet
 	 */
     public int getSampleRate()
     {
-    	return Command.executeInThread(new Command.CommandGetDatas(this)).samplerate;
+    	return this.samplerate;
+    }
+    /**
+     * Non-blocking version of {@link #getSampleRate()}
+     */
+    public CompletableFuture<Integer> getSampleRateAsync()
+    {
+    	return CompletableFuture.completedFuture(this.samplerate);
     }
 
     /**
      * Returns the number of channel of the source.<br>
-	 * @return The number of channel of the input datas of the sound source
+	 * @return The number of channel of the input datas of the sound source, or 0 if the codec couldn't be opened yet
 	 */
     public int getNumberOfChannel()
     {
-    	return Command.executeInThread(new Command.CommandGetDatas(this)).channels;
+    	return this.channels;
+    }
+    /**
+     * Non-blocking version of {@link #getNumberOfChannel()}
+     */
+    public CompletableFuture<Integer> getNumberOfChannelAsync()
+    {
+    	return CompletableFuture.completedFuture(this.channels);
     }
 
     /**
      * Returns the size of a sample of the source.<br>
-	 * @return The size of a sample of the input datas (8 or 16)
+	 * @return The size of a sample of the input datas (8 or 16, 32 for floats), or 0 if the codec couldn't be opened yet
 	 */
     public int getSampleSize()
     {
-    	return Command.executeInThread(new Command.CommandGetDatas(this)).sampleSize;
+    	return this.sampleSize;
+    }
+    /**
+     * Non-blocking version of {@link #getSampleSize()}
+     */
+    public CompletableFuture<Integer> getSampleSizeAsync()
+    {
+    	return CompletableFuture.completedFuture(this.sampleSize);
     }
 
     /**
      * Returns the total size (in bytes) of this source's data
      * For sound source, this is equivalent to {@link #getBufferSize(int)}
-     * @return The the total size (in bytes) of the source's data
+     * @return The the total size (in bytes) of the source's data, or 0 if the codec couldn't be opened yet
      */
     public int getTotalSize()
     {
-        return Command.executeInThread(new Command.CommandGetDatas(this)).totalSize;
+    	return this.totalSize;
+    }
+    /**
+     * Non-blocking version of {@link #getTotalSize()}
+     */
+    public CompletableFuture<Integer> getTotalSizeAsync()
+    {
+    	return CompletableFuture.completedFuture(this.totalSize);
     }
 
     /**
@@ -164,6 +372,13 @@ abstract class AutomaticSource<T extends AutomaticSource<T>> extends Source<T>
      */
     public int getLoopNumber()
     {
-    	return Command.executeInThread(new Command.CommandLoop(this)).number;
+    	return this.loopNumber;
+    }
+    /**
+     * Non-blocking version of {@link #getLoopNumber()}
+     */
+    public CompletableFuture<Integer> getLoopNumberAsync()
+    {
+    	return CompletableFuture.completedFuture(this.loopNumber);
     }
 }
@@ -0,0 +1,113 @@
+package audio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.openal.AL10;
+import org.lwjgl.util.vector.Vector3f;
+
+import util.Logger;
+
+/**
+ * Collects changes on many sources to send them as a single command
+ * All the changes are applied by the CommandThread in the same loop,
+ * so they become audible at the same time
+ * @see AudioSystem#batch(java.util.function.Consumer)
+ */
+public class Batch
+{
+	private final List<Command> commands = new ArrayList<>();
+
+	Batch(){}
+
+	List<Command> getCommands()
+	{
+		return this.commands;
+	}
+
+	private Batch add(Command.SourceCommand c)
+	{
+		if (c.source == null)
+			Logger.warning("Unexistent source");
+		else
+			this.commands.add(c);
+		return this;
+	}
+
+	/**
+	 * @see Source#setVolume(float)
+	 */
+	public Batch setVolume(Source source, float volume)
+	{
+		if (volume < 0 || volume > 1)
+		{
+			AudioSystem.setError(AudioSystem.ERROR_INVALID_VALUE);
+			return this;
+		}
+		return this.add(new Command.CommandVolume(source, volume));
+	}
+	/**
+	 * @see Source#setPitch(float)
+	 */
+	public Batch setPitch(Source source, float pitch)
+	{
+		if (pitch < 0.5 || pitch > 2)
+		{
+			AudioSystem.setError(AudioSystem.ERROR_INVALID_VALUE);
+			return this;
+		}
+		return this.add(new Command.CommandFloat(source, AL10.AL_PITCH, pitch));
+	}
+	public Batch setRollOffFactor(Source source, float rollOffFactor)
+	{
+		return this.add(new Command.CommandFloat(source, AL10.AL_ROLLOFF_FACTOR, rollOffFactor));
+	}
+	public Batch setSourceReferenceDistance(Source source, float referenceDistance)
+	{
+		return this.add(new Command.CommandFloat(source, AL10.AL_REFERENCE_DISTANCE, referenceDistance));
+	}
+	public Batch setSourceMaxDistance(Source source, float maxDistance)
+	{
+		return this.add(new Command.CommandFloat(source, AL10.AL_MAX_DISTANCE, maxDistance));
+	}
+	public Batch setPosition(Source source, Vector3f position)
+	{
+		return this.add(new Command.CommandVector(source, AL10.AL_POSITION, position));
+	}
+	public Batch setVelocity(Source source, Vector3f velocity)
+	{
+		return this.add(new Command.CommandVector(source, AL10.AL_VELOCITY, velocity));
+	}
+	public Batch setRelativeToListener(Source source, boolean relative)
+	{
+		return this.add(new Command.CommandRelative(source, relative));
+	}
+	/**
+	 * @see Source#setOffset(int)
+	 */
+	public Batch setOffset(Source source, int value)
+	{
+		return this.add(new Command.CommandOffset(source, value));
+	}
+	/**
+	 * @see Source#play()
+	 */
+	public Batch play(Source source)
+	{
+		return this.add(new Command.CommandPlay(source));
+	}
+	/**
+	 * @see Source#pause()
+	 */
+	public Batch pause(Source source)
+	{
+		return this.add(new Command.CommandPause(source));
+	}
+	/**
+	 * @see Source#stop()
+	 */
+	public Batch stop(Source source)
+	{
+		return this.add(new Command.CommandStop(source));
+	}
+}
@@ -0,0 +1,94 @@
+package audio;
+
+import java.util.HashMap;
+
+import org.lwjgl.openal.AL10;
+
+/**
+ * Counts the users (sources and {@link SoundCache} entries) of each OpenAL buffer
+ * A buffer is deleted when its last user releases it
+ * Also sums the memory used by the buffers in use (see {@link AudioBuffer#getMemorySize()})
+ * Only used by the CommandThread
+ */
+class BufferRegistry
+{
+	private static class Use
+	{
+		int count = 0;
+		final long bytes;
+		Use(long bytes)
+		{
+			this.bytes = bytes;
+		}
+	}
+
+	private static final HashMap<Integer, Use> uses = new HashMap<>();
+	private static volatile long memory = 0;
+
+	private BufferRegistry(){}
+
+	/**
+	 * Generates a new OpenAL buffer, with no user
+	 */
+	static int create()
+	{
+		return AL10.alGenBuffers();
+	}
+
+	/**
+	 * Adds a user to the OpenAL buffer of buffer
+	 */
+	static void retain(AudioBuffer buffer)
+	{
+		Use use = uses.get(buffer.getOpenALBufferID());
+		if (use == null)
+		{
+			uses.put(buffer.getOpenALBufferID(), use = new Use(buffer.getMemorySize()));
+			memory += use.bytes;
+		}
+		use.count ++;
+	}
+
+	/**
+	 * Removes a user from the buffer, and deletes it if it was the last one
+	 * @return true if the buffer has been deleted
+	 */
+	static boolean release(int bufferID)
+	{
+		Use use = uses.get(bufferID);
+		if (use == null) // Unknown buffer, or 0
+			return false;
+		if (-- use.count > 0)
+			return false;
+		uses.remove(bufferID);
+		memory -= use.bytes;
+		AL10.alDeleteBuffers(bufferID);
+		return true;
+	}
+
+	/**
+	 * @return the number of users of the buffer
+	 */
+	static int getUse(int bufferID)
+	{
+		Use use = uses.get(bufferID);
+		return use == null ? 0 : use.count;
+	}
+
+	/**
+	 * @return the number of buffers in use
+	 */
+	static int getBufferNumber()
+	{
+		return uses.size();
+	}
+
+	/**
+	 * @return the memory used by all the buffers in use, in bytes
+	 * Can be called by any thread
+	 */
+	static long getMemory()
+	{
+		return memory;
+	}
+}
@@ -1,18 +1,57 @@
 package audio;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.function.BooleanSupplier;
 
 import org.lwjgl.openal.AL10;
+import org.lwjgl.openal.EXTFloat32;
+
+import util.Logger;
+import util.SeekableStream;
 
 /**
  * Codecs must implements an constructor that takes an input stream
  */
 public abstract class Codec
 {
+	private static final BooleanSupplier NEVER_CANCELLED = () -> false;
+	/**
+	 * Size in samples of the chunks decoded between two checks of the cancellation
+	 */
+	static final int CANCELLATION_CHUNK = 4096;
+
 	public InputStream stream;
+	private volatile BooleanSupplier cancellation = NEVER_CANCELLED;
+	private byte[] scratch;
+	/**
+	 * Position of the stream when the codec was created, or -1 if it can't be moved
+	 */
+	private long streamStart = -1;
 	public Codec(InputStream is)
 	{
 		this.stream = is;
+		if (is instanceof SeekableStream)
+			try
+			{
+				this.streamStart = ((SeekableStream)is).getPosition();
+			}
+			catch (IOException e) {Logger.warning(e);}
+	}
+
+	/**
+	 * Sets the token checked between two chunks of decoding
+	 * Once it returns true, reading methods return what they have decoded so far
+	 */
+	void setCancellation(BooleanSupplier cancellation)
+	{
+		this.cancellation = cancellation == null ? NEVER_CANCELLED : cancellation;
+	}
+	boolean isCancelled()
+	{
+		return this.cancellation.getAsBoolean();
 	}
 	/**
 	 * Reads datas
@@ -22,7 +61,132 @@ public abstract class Codec
 	 * The number of datas read is always a multiple of {@link #getSampleSize()}
 	 * @return the datas
 	 */
-	abstract AudioBuffer readChunk(int chunkSize);
+	AudioBuffer readChunk(int chunkSize)
+	{
+		byte[] b = new byte[chunkSize * this.getSampleSize()];
+		ByteBuffer buf = ByteBuffer.wrap(b);
+		try
+		{
+			this.fill(buf);
+		}
+		catch (IOException e)
+		{
+			Logger.error(e);
+			return null;
+		}
+		return new AudioBuffer(b, buf.position(), this);
+	}
+	/**
+	 * Reads datas into dest, from its start
+	 * @param chunkSize the maximum samples read, less are read if dest is too small
+	 * If dest is direct, the datas are decoded in it without any array of the size of the chunk
+	 * @return the datas, backed by dest
+	 */
+	AudioBuffer readChunk(int chunkSize, ByteBuffer dest)
+	{
+		dest.clear();
+		dest.limit(Math.min(dest.capacity(), chunkSize * this.getSampleSize()));
+		try
+		{
+			this.fill(dest);
+		}
+		catch (IOException e)
+		{
+			Logger.error(e);
+			return null;
+		}
+		dest.flip();
+		return new AudioBuffer(dest, this);
+	}
+	/**
+	 * Decodes datas into dest until it is full, the stream is over or the decoding is cancelled
+	 * The number of datas written is always a multiple of {@link #getSampleSize()}
+	 */
+	abstract void fill(ByteBuffer dest) throws IOException;
+
+	interface ChunkReader
+	{
+		int read(byte[] b, int off, int len) throws IOException;
+	}
+	/**
+	 * Reads from reader into dest until dest is full, the reader gives no more datas or the decoding is cancelled
+	 * Arrays of heap buffers are read into directly, others are filled through a small array reused between chunks
+	 * @return false if the reader ended before dest was full
+	 */
+	boolean transfer(ByteBuffer dest, ChunkReader reader) throws IOException
+	{
+		int cnt;
+		while (dest.hasRemaining() && !this.isCancelled())
+		{
+			int len = Math.min(dest.remaining(), CANCELLATION_CHUNK * this.getSampleSize());
+			if (dest.hasArray())
+			{
+				if ((cnt = reader.read(dest.array(), dest.arrayOffset() + dest.position(), len)) <= 0)
+					return false;
+				dest.position(dest.position() + cnt);
+			}
+			else
+			{
+				byte[] s = this.getScratch(len);
+				if ((cnt = reader.read(s, 0, len)) <= 0)
+					return false;
+				dest.put(s, 0, cnt);
+			}
+		}
+		return true;
+	}
+	/**
+	 * @return an array of at least size bytes, reused by the next calls
+	 */
+	byte[] getScratch(int size)
+	{
+		if (this.scratch == null || this.scratch.length < size)
+			this.scratch = new byte[size];
+		return this.scratch;
+	}
+	/**
+	 * Gives datas without decoding or copying them, if they are stored in memory in the format of OpenAL
+	 * @param chunkSize the maximum samples given
+	 * @return a read-only view of the datas, or null if the codec can't do it (default)
+	 */
+	AudioBuffer readSlice(int chunkSize)
+	{
+		return null;
+	}
+	/**
+	 * Goes back to the first sample, without reopening the stream
+	 * @return false if the codec can't do it (default), a new codec has to be created
+	 */
+	boolean rewind()
+	{
+		return false;
+	}
+	/**
+	 * Tells the codec it is rewound each time its stream is over, so it can join its end to its start
+	 * Does nothing by default
+	 */
+	void setLooping(boolean looping)
+	{
+	}
+	/**
+	 * Moves a {@link SeekableStream} to position, counted from where it was when the codec was created
+	 * @return false if the stream can't be moved
+	 */
+	boolean setStreamPosition(long position)
+	{
+		if (this.streamStart < 0)
+			return false;
+		try
+		{
+			((SeekableStream)this.stream).setPosition(this.streamStart + position);
+			return true;
+		}
+		catch (IOException e)
+		{
+			Logger.warning(e);
+			return false;
+		}
+	}
 	/**
 	 * Reads datas
 	 * Datas are read until the stream is over
@@ -30,6 +194,63 @@ public abstract class Codec
 	 * @return the datas
 	 */
 	abstract AudioBuffer readAll();
+	/**
+	 * Reads chunks until the stream is over or the decoding is cancelled, and joins them
+	 * Used by the codecs which don't know the size of their datas
+	 */
+	AudioBuffer readChunks()
+	{
+		LinkedList<AudioBuffer> bufs = new LinkedList<>();
+
+		while (!this.isStreamOver() && !this.isCancelled())
+		{
+			AudioBuffer buf = this.readChunk(16384);
+			if (buf == null)
+				break;
+			bufs.add(buf);
+		}
+
+		int sum = 0;
+		for (AudioBuffer buf : bufs)
+			sum += buf.getLimit();
+
+		byte[] b = new byte[sum];
+
+		int offset=0;
+		for (AudioBuffer audioBuf : bufs)
+		{
+			System.arraycopy(audioBuf.getAudioDatas(), 0, b, offset, audioBuf.getLimit());
+			offset += audioBuf.getLimit();
+		}
+
+		return new AudioBuffer(b, b.length, this);
+	}
+	/**
+	 * @return true if the codec can jump to a sample without decoding the datas before it
+	 */
+	boolean canSeek()
+	{
+		return false;
+	}
+	/**
+	 * Moves the decoding to sampleOffset, counted from the current position
+	 * The streams can only be read forward, so it is used on a newly opened codec
+	 * By default, decodes and discards chunks up to the offset
+	 * @return false if the stream ended or the decoding was cancelled before the offset
+	 */
+	boolean seek(int sampleOffset)
+	{
+		int remaining = sampleOffset;
+		ByteBuffer discarded = ByteBuffer.allocate(CANCELLATION_CHUNK * this.getSampleSize());
+		while (remaining > 0 && !this.isStreamOver() && !this.isCancelled())
+		{
+			AudioBuffer skipped = this.readChunk(Math.min(remaining, CANCELLATION_CHUNK), discarded);
+			if (skipped == null || skipped.getLimit() <= 0)
+				break;
+			remaining -= this.byteSizeToSampleNumber(skipped.getLimit());
+		}
+		return remaining <= 0;
+	}
 	/**
 	 * @return true if the stream is out of datas
 	 */
@@ -41,14 +262,22 @@ public abstract class Codec
 
 	public abstract int getChannelsNumber();
 	public abstract int getSamplerate();
+	/**
+	 * @return 8 or 16, or 32 for float samples
+	 */
 	public abstract int getBitsPerSample();
     /**
      * @return the total size of all datas or -1 if we don't know
      */
 	public abstract int getTotalSize();
 
+	/**
+	 * Codecs giving 32 bits samples give floats, only if {@link AudioSystem#isFloatOutput()}
+	 */
 	int getALFormat()
 	{
+		if (this.getBitsPerSample() == 32)
+			return this.getChannelsNumber() == 1 ? EXTFloat32.AL_FORMAT_MONO_FLOAT32 : EXTFloat32.AL_FORMAT_STEREO_FLOAT32;
 		if (this.getChannelsNumber() == 1)
 			return this.getBitsPerSample() == 8 ? AL10.AL_FORMAT_MONO8 : AL10.AL_FORMAT_MONO16;
 
@@ -0,0 +1,12 @@
+package audio;
+
+import java.io.InputStream;
+
+/**
+ * Creates a codec reading a stream, registered with {@link AudioSystem#registerCodec(Class, CodecProbe, CodecFactory)}
+ * Usually the constructor of the codec (CodecWav::new)
+ */
+public interface CodecFactory
+{
+	public Codec create(InputStream is) throws Exception;
+}
@@ -1,85 +1,262 @@
 package audio;
 
 import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
-import javazoom.mp3spi.DecodedMpegAudioInputStream;
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.decoder.Obuffer;
 import util.Logger;
 
+/**
+ * Decodes MPEG audio with JLayer, frame by frame
+ * The float samples of its synthesis filter are given to OpenAL as floats if {@link AudioSystem#isFloatOutput()},
+ * and converted to 16 bits otherwise
+ */
 public class CodecMP3 extends Codec
 {
+	/**
+	 * Value of a full scale sample given by the synthesis filter of JLayer
+	 */
+	private static final float SYNTHESIS_SCALE = 32768f;
+
+	/**
+	 * Keeps the floats of the last decoded frame, instead of the shorts of JLayer's SampleBuffer
+	 */
+	private static class FloatFrame extends Obuffer
+	{
+		final float[][] samples;
+		final int[] counts;
+		/**
+		 * Samples of the frame already given
+		 */
+		int read;
+
+		FloatFrame(int channels)
+		{
+			this.samples = new float[channels][1152];
+			this.counts = new int[channels];
+		}
+		@Override
+		public void appendSamples(int channel, float[] f)
+		{
+			if (channel >= this.samples.length)
+				return;
+			float[] s = this.samples[channel];
+			int c = this.counts[channel];
+			for (int i=0;i<f.length && c < s.length;i++)
+				s[c++] = f[i] / SYNTHESIS_SCALE;
+			this.counts[channel] = c;
+		}
+		@Override
+		public void append(int channel, short value)
+		{
+			if (channel < this.samples.length && this.counts[channel] < this.samples[channel].length)
+				this.samples[channel][this.counts[channel]++] = value / SYNTHESIS_SCALE;
+		}
+		@Override
+		public void clear_buffer()
+		{
+			Arrays.fill(this.counts, 0);
+			this.read = 0;
+		}
+		int available()
+		{
+			return this.counts[0] - this.read;
+		}
+		@Override
+		public void write_buffer(int val) {}
+		@Override
+		public void close() {}
+		@Override
+		public void set_stop_flag() {}
+	}
+
 	private boolean endOfStream = false;
-	private DecodedMpegAudioInputStream myAudioInputStream = null;
-	private int channels, sampleSize, samplerate;
+	private Bitstream bitstream;
+	private Decoder decoder;
+	/**
+	 * Header of the next frame to decode, null at the end of the stream
+	 */
+	private Header header;
+	private FloatFrame frame;
+	private int[] offsets;
+	private final SampleConverter converter;
+	private int channels, samplerate;
 
-	public CodecMP3(InputStream is)
+	public CodecMP3(InputStream is) throws IOException
+	{
+		this(is, AudioSystem.isFloatOutput());
+	}
+	/**
+	 * @param floatOutput true to give float samples, false to give 16 bits ones
+	 */
+	CodecMP3(InputStream is, boolean floatOutput) throws IOException
 	{
 		super(is);
-		this.myAudioInputStream = DecodedMpegAudioInputStream.toFileFormat(new BufferedInputStream(is));
-		this.channels = this.myAudioInputStream.getHeader().mode() < 3 ? 2 : 1;
-		this.sampleSize = 16;
-		this.samplerate = this.myAudioInputStream.getHeader().frequency();
+		this.open();
+		if (this.header == null)
+			throw new IOException("No mpeg frame in the stream");
+		this.converter = new SampleConverter(32, true, floatOutput, AudioSystem.isDithering());
 	}
 
-	@Override
-	public AudioBuffer readChunk(int length)
+	/**
+	 * Creates the decoder over the stream, and reads the first header
+	 */
+	private void open() throws IOException
 	{
-		int bytesRead = 0, cnt = 0;
-
-		byte[] streamBuffer = new byte[length * this.getSampleSize()];
+		this.bitstream = new Bitstream(new BufferedInputStream(this.stream));
+		this.decoder = new Decoder();
+		this.endOfStream = false;
+		try
+		{
+			this.header = this.bitstream.readFrame();
+		}
+		catch (JavaLayerException e)
+		{
+			throw new IOException(e);
+		}
+		if (this.header == null)
+			return;
+		this.channels = this.header.mode() == Header.SINGLE_CHANNEL ? 1 : 2;
+		this.samplerate = this.header.frequency();
+		this.offsets = new int[this.channels];
+		this.frame = new FloatFrame(this.channels);
+		this.decoder.setOutputBuffer(this.frame);
+	}
 
+	/**
+	 * Decodes the frame of the current header, then reads the next header
+	 * @return false if the stream is over
+	 */
+	private boolean decodeFrame()
+	{
+		if (this.header == null)
+			return false;
 		try
 		{
-			while (!this.endOfStream && bytesRead < streamBuffer.length)
-			{
-				this.myAudioInputStream.execute();
-				if ((cnt = this.myAudioInputStream.read(streamBuffer, bytesRead, streamBuffer.length - bytesRead)) <= 0)
-				{
-					this.endOfStream = true;
-					break;
-				}
-				bytesRead += cnt;
-			}
+			this.decoder.decodeFrame(this.header, this.bitstream);
+			this.bitstream.closeFrame();
+			this.header = this.bitstream.readFrame();
+			return true;
 		}
-		catch (Exception ioe)
+		catch (JavaLayerException e)
 		{
-			this.endOfStream = true;
-			return null;
+			Logger.warning(e);
+			this.header = null;
+			return false;
 		}
+	}
 
-		if (bytesRead <= 0)
+	@Override
+	void fill(ByteBuffer dest)
+	{
+		while (dest.remaining() >= this.getSampleSize() && !this.endOfStream && !this.isCancelled())
 		{
-			this.endOfStream = true;
-			return null;
+			int available = this.frame.available();
+			if (available > 0)
+			{
+				for (int c=0;c<this.channels;c++)
+					this.offsets[c] = this.frame.read;
+				this.frame.read += this.converter.interleave(this.frame.samples, this.offsets, available, dest);
+			}
+			else if (!this.decodeFrame())
+				this.endOfStream = true;
 		}
-		return new AudioBuffer(streamBuffer, bytesRead, this);
 	}
 
 	@Override
 	public AudioBuffer readAll()
 	{
-		LinkedList<AudioBuffer> bufs = new LinkedList<>();
-
-		while (!this.isStreamOver())
-			bufs.add(this.readChunk(16384));
+		AudioBuffer all = this.readChunks();
+		Logger.debug("Read : "+all.getLimit());
+		return all;
+	}
 
-		int sum = 0;
-		for (AudioBuffer buf : bufs)
-			sum += buf.getLimit();
+	@Override
+	boolean canSeek()
+	{
+		return true;
+	}
 
-		byte[] b = new byte[sum];
+	/**
+	 * Skips whole frames by reading only their headers, then decodes the frames before the offset without giving them,
+	 * so the state of the decoder is built again, and the samples left in the frame of the offset
+	 * The samples after the offset are then the ones of a decoding from the start, if the bit reservoir of the skipped
+	 * frames isn't bigger than estimated by {@link #getPrerollFrames()}
+	 */
+	@Override
+	boolean seek(int sampleOffset)
+	{
+		int samplesPerFrame = this.getSamplesPerFrame();
+		long frames = Math.max(0, sampleOffset / samplesPerFrame - this.getPrerollFrames());
+		try
+		{
+			for (long i=0;i<frames && this.header != null;i++)
+			{
+				this.bitstream.closeFrame();
+				this.header = this.bitstream.readFrame();
+			}
+		}
+		catch (JavaLayerException e)
+		{
+			Logger.warning(e);
+			this.header = null;
+		}
+		if (this.header == null)
+		{
+			this.endOfStream = true;
+			return false;
+		}
+		return super.seek((int)(sampleOffset - frames * samplesPerFrame));
+	}
 
-		int offset=0;
-		for (AudioBuffer audioBuf : bufs)
+	/**
+	 * The decoder is created again over the same stream, without closing the previous one
+	 * which would close the stream
+	 */
+	@Override
+	boolean rewind()
+	{
+		if (!this.setStreamPosition(0))
+			return false;
+		try
+		{
+			this.open();
+			return this.header != null;
+		}
+		catch (IOException e)
 		{
-			System.arraycopy(audioBuf.getAudioDatas(), 0, b, offset, audioBuf.getLimit());
-			offset += audioBuf.getLimit();
+			Logger.warning(e);
+			return false;
 		}
+	}
 
-		Logger.debug("Read : "+b.length);
+	/**
+	 * The synthesis filter keeps the last 512 samples, and Layer III also needs the overlap of the previous frame
+	 * and the bit reservoir, up to 511 bytes of the frames before, estimated from the size of the current frame
+	 * @return the number of frames to decode before a frame, to decode it as it would be from the start
+	 */
+	private int getPrerollFrames()
+	{
+		int samplesPerFrame = this.getSamplesPerFrame(), frames = (512 + samplesPerFrame - 1) / samplesPerFrame;
+		if (this.header.layer() == 3)
+			frames += 1 + (511 + this.header.framesize - 1) / Math.max(1, this.header.framesize);
+		return frames;
+	}
 
-		return new AudioBuffer(b, b.length, this);
+	private int getSamplesPerFrame()
+	{
+		if (this.header.layer() == 1)
+			return 384;
+		if (this.header.layer() == 2 || this.header.version() == Header.MPEG1)
+			return 1152;
+		return 576; // Layer III of MPEG 2 and 2.5
 	}
 
 	@Override
@@ -93,7 +270,7 @@ public class CodecMP3 extends Codec
 	{
 		try
 		{
-			this.myAudioInputStream.close();
+			this.bitstream.close();
 		}
 		catch (Exception e){}
 	}
@@ -110,10 +287,13 @@ public class CodecMP3 extends Codec
 		return this.samplerate;
 	}
 
+	/**
+	 * 32 for floats if {@link AudioSystem#isFloatOutput()}, 16 otherwise
+	 */
 	@Override
 	public int getBitsPerSample()
 	{
-		return this.sampleSize;
+		return this.converter.getOutputBits();
 	}
 
 	@Override
@@ -121,4 +301,4 @@ public class CodecMP3 extends Codec
 	{
 		return -1;
 	}
-}
\ No newline at end of file
+}
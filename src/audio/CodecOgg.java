@@ -2,32 +2,167 @@ package audio;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
-import org.newdawn.slick.openal.OggInputStream;
+import com.jcraft.jogg.Packet;
+import com.jcraft.jogg.Page;
+import com.jcraft.jogg.StreamState;
+import com.jcraft.jogg.SyncState;
+import com.jcraft.jorbis.Block;
+import com.jcraft.jorbis.Comment;
+import com.jcraft.jorbis.DspState;
+import com.jcraft.jorbis.Info;
 
 import util.Logger;
 
+/**
+ * Decodes Vorbis with JOrbis, which synthesizes float samples
+ * They are given to OpenAL as floats if {@link AudioSystem#isFloatOutput()}, and converted to 16 bits otherwise
+ */
 public class CodecOgg extends Codec
 {
-	protected OggInputStream oggStream;
+	/**
+	 * Bytes read from the stream each time the decoder needs a page
+	 */
+	private static final int READ_SIZE = 4096;
+
+	private SyncState syncState;
+	private StreamState streamState;
+	private Page page;
+	private Packet packet;
+	private Info info;
+	private DspState dspState;
+	private Block block;
+	private final float[][][] pcm = new float[1][][];
+	private int[] offsets;
+	private final SampleConverter converter;
+	private boolean over = false;
 	public int channels, samplerate;
 	public CodecOgg(InputStream is) throws IOException
+	{
+		this(is, AudioSystem.isFloatOutput());
+	}
+	/**
+	 * @param floatOutput true to give float samples, false to give 16 bits ones
+	 */
+	CodecOgg(InputStream is, boolean floatOutput) throws IOException
 	{
 		super(is);
-		this.oggStream = new OggInputStream(is);
-		this.samplerate = this.oggStream.getRate();
-		this.channels = this.oggStream.getChannels();
+		this.readHeaders();
+		this.samplerate = this.info.rate;
+		this.channels = this.info.channels;
+		this.converter = new SampleConverter(32, true, floatOutput, AudioSystem.isDithering());
+	}
+
+	/**
+	 * Reads the 3 header packets of the stream, and prepares the decoder
+	 */
+	private void readHeaders() throws IOException
+	{
+		this.syncState = new SyncState();
+		this.streamState = new StreamState();
+		this.page = new Page();
+		this.packet = new Packet();
+		this.info = new Info();
+		this.dspState = new DspState();
+		this.over = false;
+
+		if (!this.readPage())
+			throw new IOException("Not an ogg stream");
+		this.streamState.init(this.page.serialno());
+		this.info.init();
+		Comment comment = new Comment();
+		comment.init();
+		this.streamState.pagein(this.page);
+		for (int headers = 0;headers < 3;)
+		{
+			int result = this.streamState.packetout(this.packet);
+			if (result == 0)
+			{
+				if (!this.readPage())
+					throw new IOException("End of stream in the vorbis headers");
+				this.streamState.pagein(this.page);
+			}
+			else if (result < 0 || this.info.synthesis_headerin(comment, this.packet) < 0)
+				throw new IOException("Not a vorbis stream");
+			else
+				headers ++;
+		}
+
+		this.dspState.synthesis_init(this.info);
+		this.block = new Block(this.dspState);
+		this.offsets = new int[this.info.channels];
+	}
+
+	/**
+	 * Reads the stream until a whole page is available
+	 * @return false if the stream is over
+	 */
+	private boolean readPage() throws IOException
+	{
+		int result;
+		while ((result = this.syncState.pageout(this.page)) != 1)
+		{
+			if (result < 0) // Hole in the datas, the next page is synchronized again
+				continue;
+			int index = this.syncState.buffer(READ_SIZE);
+			int read = this.stream.read(this.syncState.data, index, READ_SIZE);
+			if (read <= 0)
+				return false;
+			this.syncState.wrote(read);
+		}
+		return true;
 	}
+
+	/**
+	 * Gives the samples already synthesized, then decodes the next packets, reading pages when needed
+	 */
 	@Override
-	public AudioBuffer readChunk(int length) {
+	void fill(ByteBuffer dest) throws IOException
+	{
+		while (dest.remaining() >= this.getSampleSize() && !this.over && !this.isCancelled())
+		{
+			int samples = this.dspState.synthesis_pcmout(this.pcm, this.offsets);
+			if (samples > 0)
+			{
+				this.dspState.synthesis_read(this.converter.interleave(this.pcm[0], this.offsets, samples, dest));
+				continue;
+			}
+
+			int result = this.streamState.packetout(this.packet);
+			if (result > 0)
+			{
+				if (this.block.synthesis(this.packet) == 0)
+					this.dspState.synthesis_blockin(this.block);
+			}
+			else if (result == 0)
+			{
+				if (this.streamState.e_o_s != 0 || !this.readPage())
+					this.over = true;
+				else
+					this.streamState.pagein(this.page);
+			}
+		}
+	}
+
+	/**
+	 * The decoder has to read the headers again, from the same stream
+	 */
+	@Override
+	boolean rewind()
+	{
+		if (!this.setStreamPosition(0))
+			return false;
 		try
 		{
-			byte[] by = new byte[length * this.getSampleSize()];
-			int red = this.oggStream.read(by);
-			return new AudioBuffer(by, red, this);
+			this.readHeaders();
+			return true;
+		}
+		catch (IOException e)
+		{
+			Logger.warning(e);
+			return false;
 		}
-		catch (IOException e) {Logger.error(e);}
-		return null;
 	}
 
 	@Override
@@ -35,16 +170,16 @@ public class CodecOgg extends Codec
 	{
 		try
 		{
-			this.oggStream.close();
+			this.stream.close();
 		} catch (IOException e) {Logger.error(e);}
 	}
 	@Override
 	public AudioBuffer readAll() {
-		return this.readChunk(this.oggStream.getLength());
+		return this.readChunks();
 	}
 	@Override
 	public boolean isStreamOver() {
-		return this.oggStream.atEnd();
+		return this.over;
 	}
 	@Override
 	public int getChannelsNumber()
@@ -56,14 +191,20 @@ public class CodecOgg extends Codec
 	{
 		return this.samplerate;
 	}
+	/**
+	 * 32 for floats if {@link AudioSystem#isFloatOutput()}, 16 otherwise
+	 */
 	@Override
 	public int getBitsPerSample()
 	{
-		return 16;
+		return this.converter.getOutputBits();
 	}
+	/**
+	 * Vorbis doesn't give the size of the datas before the last page
+	 */
 	@Override
 	public int getTotalSize()
 	{
-		return this.oggStream.getLength();
+		return -1;
 	}
-}
\ No newline at end of file
+}
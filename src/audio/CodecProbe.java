@@ -0,0 +1,18 @@
+package audio;
+
+/**
+ * Recognizes the format of a codec from the first bytes of a stream
+ */
+public interface CodecProbe
+{
+	/**
+	 * The number of bytes given to probes
+	 */
+	public static final int HEADER_SIZE = 12;
+
+	/**
+	 * @param header the first bytes of the stream, less than {@link #HEADER_SIZE} if the stream is shorter
+	 * @return true if the stream can be read by the codec
+	 */
+	public boolean matches(byte[] header);
+}
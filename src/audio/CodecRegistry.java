@@ -0,0 +1,145 @@
+package audio;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import util.InputStreamSource;
+import util.Logger;
+import util.SeekableStream;
+
+/**
+ * Knows how to create each codec, and how to recognize its format from the first bytes of a stream
+ * Codecs which aren't registered are created by reflection, with their constructor taking an input stream
+ */
+class CodecRegistry
+{
+	private static final Map<Class<? extends Codec>, CodecFactory> factories = new ConcurrentHashMap<>();
+	/**
+	 * Probes in registration order, the first matching one is used
+	 */
+	private static final LinkedHashMap<Class<? extends Codec>, CodecProbe> probes = new LinkedHashMap<>();
+	/**
+	 * Codec found for each stream key
+	 */
+	private static final Map<Object, Class<? extends Codec>> detected = new ConcurrentHashMap<>();
+
+	static
+	{
+		register(CodecWav.class, h -> startsWith(h, 0, "RIFF") && startsWith(h, 8, "WAVE"), CodecWav::new);
+		register(CodecOgg.class, h -> startsWith(h, 0, "OggS"), CodecOgg::new);
+		register(CodecMP3.class, h -> startsWith(h, 0, "ID3") || (h.length >= 2 && (h[0] & 0xFF) == 0xFF && (h[1] & 0xE0) == 0xE0), CodecMP3::new);
+	}
+
+	private CodecRegistry(){}
+
+	private static boolean startsWith(byte[] header, int offset, String magic)
+	{
+		if (header.length < offset + magic.length())
+			return false;
+		for (int i=0;i<magic.length();i++)
+			if (header[offset + i] != magic.charAt(i))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @param probe can be null if the codec can't be recognized
+	 */
+	static void register(Class<? extends Codec> codecClass, CodecProbe probe, CodecFactory factory)
+	{
+		factories.put(codecClass, factory);
+		synchronized (probes)
+		{
+			probes.remove(codecClass);
+			if (probe != null)
+				probes.put(codecClass, probe);
+		}
+		detected.clear();
+	}
+
+	/**
+	 * Creates a codec without reflection if it is registered
+	 */
+	static Codec create(Class<? extends Codec> codecClass, InputStream is) throws Exception
+	{
+		CodecFactory factory = factories.get(codecClass);
+		if (factory != null)
+			return factory.create(is);
+		return codecClass.getConstructor(InputStream.class).newInstance(is);
+	}
+
+	/**
+	 * @return the codec class of the stream, from the cache if its key has already been probed
+	 */
+	static Class<? extends Codec> getDetected(InputStreamSource source)
+	{
+		Object key = source.getCacheKey();
+		return key == null ? null : detected.get(key);
+	}
+
+	/**
+	 * Finds the codec class of a stream from its first bytes, and keeps it for its key
+	 * @param is the stream, moved back to its start if it can be : see {@link #peekable(InputStream)}
+	 * @return the first registered codec recognizing the stream, or {@link CodecWav} if none does
+	 */
+	static Class<? extends Codec> detect(InputStreamSource source, InputStream is) throws IOException
+	{
+		byte[] header = new byte[CodecProbe.HEADER_SIZE];
+		int read = 0, cnt;
+		if (is instanceof SeekableStream)
+		{
+			long start = ((SeekableStream)is).getPosition();
+			while (read < header.length && (cnt = is.read(header, read, header.length - read)) > 0)
+				read += cnt;
+			((SeekableStream)is).setPosition(start);
+		}
+		else
+		{
+			is.mark(header.length);
+			while (read < header.length && (cnt = is.read(header, read, header.length - read)) > 0)
+				read += cnt;
+			is.reset();
+		}
+		if (read < header.length)
+		{
+			byte[] h = new byte[read];
+			System.arraycopy(header, 0, h, 0, read);
+			header = h;
+		}
+
+		Class<? extends Codec> found = null;
+		synchronized (probes)
+		{
+			for (Map.Entry<Class<? extends Codec>, CodecProbe> e : probes.entrySet())
+				if (e.getValue().matches(header))
+				{
+					found = e.getKey();
+					break;
+				}
+		}
+		if (found == null)
+		{
+			Logger.warning("Unknown audio format, read as wav");
+			found = CodecWav.class;
+		}
+
+		Object key = source.getCacheKey();
+		if (key != null)
+			detected.put(key, found);
+		return found;
+	}
+
+	/**
+	 * @return is if its first bytes can be read again by {@link #detect(InputStreamSource, InputStream)}, a buffered stream over it otherwise
+	 */
+	static InputStream peekable(InputStream is)
+	{
+		if (is instanceof SeekableStream || is.markSupported())
+			return is;
+		return new BufferedInputStream(is);
+	}
+}
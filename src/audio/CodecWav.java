@@ -2,19 +2,33 @@ package audio;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import util.Logger;
+import util.MappedFileStreamSource;
 
 public class CodecWav extends Codec
 {
 	private boolean over = false;
 	private int bitsPerChannel, channels, fileSize, samplerate;
+	private boolean floatSamples;
+	/**
+	 * Converts the samples OpenAL can't read, null if they are given as they are
+	 */
+	private SampleConverter converter;
+	/**
+	 * The datas in memory if the stream is a {@link MappedFileStreamSource.MappedInputStream}, null otherwise
+	 */
+	private ByteBuffer mapping;
+	private static final int HEADER_SIZE = 44;
 	public CodecWav(InputStream is)
 	{
 		super(is);
 		try
 		{
-			this.stream.skip(22);
+			this.stream.skip(20);
+			this.floatSamples = this.getValue(2) == 3; // WAVE_FORMAT_IEEE_FLOAT
 			this.channels = this.getValue(2);
 			this.samplerate = this.getValue(4);
 			this.stream.skip(6);
@@ -23,45 +37,160 @@ public class CodecWav extends Codec
 			this.fileSize = this.getValue(4);
 		} catch(IOException e){Logger.error(e);}
 
+		// Samples of more than 16 bits are given as floats if OpenAL can read them, and are converted if needed
+		boolean floatOutput = AudioSystem.isFloatOutput() && this.bitsPerChannel > 16;
+		boolean littleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+		if (this.bitsPerChannel != 8 && !(littleEndian && (this.bitsPerChannel == 16 || (this.floatSamples && floatOutput))))
+			try
+			{
+				this.converter = new SampleConverter(this.bitsPerChannel, this.floatSamples, floatOutput, AudioSystem.isDithering());
+			}
+			catch (IllegalArgumentException e) {Logger.error(e);}
+
+		if (is instanceof MappedFileStreamSource.MappedInputStream)
+		{
+			this.mapping = ((MappedFileStreamSource.MappedInputStream)is).getBuffer();
+			this.mapping.limit(Math.min(this.mapping.limit(), this.mapping.position() + this.fileSize));
+		}
+
 		Logger.debug("samplerate : " + this.samplerate);
 		Logger.debug("channels : " + this.channels);
 		Logger.debug("audioFormat : " + this.getALFormat());
 	}
 
 	@Override
-	public AudioBuffer readChunk(int length) {
-		try
+	void fill(ByteBuffer dest) throws IOException
+	{
+		if (this.converter != null)
+			this.convert(dest);
+		else if (this.mapping != null)
+		{ // Copied from memory to memory, by chunks to check the cancellation
+			while (dest.hasRemaining() && this.mapping.hasRemaining() && !this.isCancelled())
+			{
+				ByteBuffer chunk = this.mapping.slice();
+				chunk.limit(Math.min(Math.min(dest.remaining(), chunk.remaining()), CANCELLATION_CHUNK * this.getSampleSize()));
+				dest.put(chunk);
+				this.mapping.position(this.mapping.position() + chunk.limit());
+			}
+		}
+		else
+			this.transfer(dest, this.stream::read);
+
+		if (this.stream.available() <= 0)
+			this.over = true;
+	}
+
+	/**
+	 * Converts the datas chunk by chunk, from the mapping or through a small array
+	 */
+	private void convert(ByteBuffer dest) throws IOException
+	{
+		int inBytes = this.converter.getInputBytes(), outBytes = this.converter.getOutputBits() / 8;
+		while (dest.remaining() >= outBytes && !this.isCancelled())
 		{
-			byte[] b = new byte[length * this.getSampleSize()];
-			int read = this.stream.read(b);
-			
-			if (this.bitsPerChannel > 16)
+			int length = Math.min(dest.remaining() / outBytes, CANCELLATION_CHUNK * this.channels) * inBytes;
+			ByteBuffer raw;
+			if (this.mapping != null)
+			{
+				raw = this.mapping.slice();
+				raw.limit(Math.min(raw.limit(), length));
+			}
+			else
 			{
-				byte[] total = new byte[length * 2 * this.channels];
-				int bytePerChannel = this.bitsPerChannel / 8;
-				
-				int j = 0;
-				for (int i=0;i<total.length;i+=2)
-				{
-					total[i] = b[j + bytePerChannel - 2];
-					total[i + 1] = b[j + bytePerChannel - 1];
-					j += bytePerChannel;
-				}
-				
-				b = total;
-				read = read * 2 / bytePerChannel;
+				byte[] b = this.getScratch(length);
+				raw = ByteBuffer.wrap(b, 0, this.readFully(b, length));
 			}
-			
+
+			int read = raw.remaining();
+			this.converter.convert(raw, dest);
+			if (this.mapping != null)
+				this.mapping.position(this.mapping.position() + raw.position());
+			if (read < length)
+				break;
+		}
+	}
+
+	private int readFully(byte[] b, int length) throws IOException
+	{
+		int read = 0, cnt;
+		while (read < length && (cnt = this.stream.read(b, read, length - read)) > 0)
+			read += cnt;
+		return read;
+	}
+
+	/**
+	 * Mapped datas which don't need to be converted are given as they are
+	 */
+	@Override
+	AudioBuffer readSlice(int chunkSize)
+	{
+		if (this.mapping == null || this.converter != null)
+			return null;
+
+		int length = (int)Math.min((long)chunkSize * this.getSampleSize(), this.mapping.remaining());
+		length -= length % this.getSampleSize();
+		ByteBuffer slice = this.mapping.slice().order(ByteOrder.LITTLE_ENDIAN);
+		slice.limit(length);
+		this.mapping.position(this.mapping.position() + length);
+		if (!this.mapping.hasRemaining())
+			this.over = true;
+		return new AudioBuffer(slice, this);
+	}
+
+	/**
+	 * The header is already read, so the stream just goes back after it
+	 */
+	@Override
+	boolean rewind()
+	{
+		if (!this.setStreamPosition(HEADER_SIZE))
+			return false;
+		this.over = false;
+		return true;
+	}
+
+	/**
+	 * @return the size of a sample in the file, which can be bigger than {@link #getSampleSize()}
+	 */
+	private int getFileSampleSize()
+	{
+		return this.channels * this.bitsPerChannel / 8;
+	}
+
+	@Override
+	boolean canSeek()
+	{
+		return true;
+	}
+
+	/**
+	 * Samples have a fixed size, so we just skip the bytes before the offset
+	 */
+	@Override
+	boolean seek(int sampleOffset)
+	{
+		try
+		{
+			long toSkip = (long)sampleOffset * this.getFileSampleSize(), skipped;
+			while (toSkip > 0 && (skipped = this.stream.skip(toSkip)) > 0)
+				toSkip -= skipped;
+
 			if (this.stream.available() <= 0)
 				this.over = true;
-			
-			return new AudioBuffer(b, read, this);
+			return toSkip == 0;
 		}
 		catch (IOException e) {Logger.error(e);}
-		return null;
+		return false;
 	}
+
 	@Override
-	public void quit(){}
+	public void quit()
+	{
+		try
+		{
+			this.stream.close();
+		} catch (IOException e) {Logger.error(e);}
+	}
 
 	int getValue(int numberLength) throws IOException
 	{
@@ -81,7 +210,7 @@ public class CodecWav extends Codec
 	@Override
 	public AudioBuffer readAll()
 	{
-		return this.readChunk(this.fileSize);
+		return this.readChunk(this.fileSize / this.getFileSampleSize());
 	}
 
 	@Override
@@ -101,10 +230,14 @@ public class CodecWav extends Codec
 		return this.samplerate;
 	}
 
+	/**
+	 * Datas of more than 16 bits are given as floats (32) if {@link AudioSystem#isFloatOutput()},
+	 * and converted to 16 bits otherwise
+	 */
 	@Override
 	public int getBitsPerSample()
 	{
-		return this.bitsPerChannel;
+		return this.converter != null ? this.converter.getOutputBits() : this.bitsPerChannel;
 	}
 
 	@Override
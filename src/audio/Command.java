@@ -1,11 +1,16 @@
 package audio;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import org.lwjgl.openal.AL10;
+import org.lwjgl.openal.ALC10;
 import org.lwjgl.openal.AL11;
 import org.lwjgl.util.vector.Vector3f;
 
@@ -16,21 +21,23 @@ abstract class Command
 {
 	private static boolean GET = true,
 						   SET = false;
-	private boolean ended = false;
+	private final CompletableFuture<Void> ended = new CompletableFuture<>();
 
 	Command(){}
 
-	synchronized void setEnded() {this.ended = true;this.notify();}
-	synchronized boolean isEnded() {return this.ended;}
+	void setEnded() {this.ended.complete(null);}
+	boolean isEnded() {return this.ended.isDone();}
 
-	synchronized void setWaiting()
+	void setWaiting()
     {
-    	while (!this.isEnded())
-	    	try{this.wait();}
-			catch (InterruptedException e){e.printStackTrace();}
+    	this.ended.join();
     }
 
-    static synchronized <Type extends Command> Type executeInThread(Type t)
+	/**
+	 * Sends the command to the CommandThread and returns immediately
+	 * If the command can't be sent, it is ended right away so nobody waits for it
+	 */
+    static <Type extends Command> Type submit(Type t)
     {
     	if (!AudioSystem.isInitialized())
     		AudioSystem.init();
@@ -38,29 +45,108 @@ abstract class Command
     	if (!AudioSystem.isInitialized() || !CommandThread.getThread().shouldContinu())
     	{
     		Logger.error("System isn't started");
+    		t.setEnded();
     		return t;
     	}
 
     	if (t instanceof SourceCommand && ((SourceCommand)t).source == null)
     	{
-    		Logger.warning("Unexistent source "+((SourceCommand)t).source.getOpenALSourceID());
+    		Logger.warning("Unexistent source");
+    		t.setEnded();
     		return t;
     	}
 
+    	if (t instanceof SourceCommand)
+    		enqueue(t, ((SourceCommand)t).source);
+    	else if (t instanceof CommandBatch)
+    		enqueue(t, ((CommandBatch)t).sources, 0);
+    	else
+    		enqueue(t);
+        return t;
+    }
+
+    private static void enqueue(Command t)
+    {
         CommandThread.getThread().addCommand(t);
-        t.setWaiting();
+        t.updateShadow();
+    }
+
+    /**
+     * Queues a command of a single source, holding the lock of its pending SETs
+     * A SET can give its value to the pending one of the same dataType instead,
+     * any other command of the source is queued after them, so they can't take new values anymore
+     */
+    static void enqueue(Command t, Source source)
+    {
+    	Map<Integer, CoalescableCommand> pending = source.getPendingSets();
+    	synchronized (pending)
+    	{
+    		if (!(t instanceof CoalescableCommand))
+    			pending.clear();
+    		else if (((CoalescableCommand)t).coalesce())
+    		{
+    			t.updateShadow();
+    			return;
+    		}
+    		enqueue(t);
+    	}
+    }
+
+    /**
+     * Queues a batch holding the locks of the pending SETs of all its sources, taken in the order of their ids
+     * Like any other command, it clears them
+     */
+    static void enqueue(Command t, List<Source> sources, int locked)
+    {
+    	if (locked == sources.size())
+    	{
+    		enqueue(t);
+    		return;
+    	}
+    	Map<Integer, CoalescableCommand> pending = sources.get(locked).getPendingSets();
+    	synchronized (pending)
+    	{
+    		pending.clear();
+    		enqueue(t, sources, locked + 1);
+    	}
+    }
+
+    /**
+     * Sends the command and returns a future completed with the value read
+     * from the command once it has been handled
+     * The futures are completed on the CommandThread, so their continuations mustn't call
+     * a blocking method of the API : it would wait for the CommandThread forever
+     */
+    static <Type extends Command, R> CompletableFuture<R> submitAsync(Type t, Function<? super Type, R> result)
+    {
+    	return ((Command)submit(t)).ended.thenApply(v -> result.apply(t));
+    }
 
-        int error;
-        if ((error = AL10.alGetError()) != 0)
-        {
-        	Logger.error("Error in command "+t.getClass().getSimpleName()+", OpenAL error : "+error);
-        	AudioSystem.setError(error);
-        }
+    /**
+     * Sends the command and returns a future completed once it has been handled
+     */
+    static CompletableFuture<Void> submitAsync(Command t)
+    {
+    	return submit(t).ended.thenApply(v -> null);
+    }
 
+    /**
+     * Sends the command and waits until the CommandThread has handled it
+     */
+    static <Type extends Command> Type executeInThread(Type t)
+    {
+    	submit(t).setWaiting();
         return t;
     }
 
 	abstract void handle();
+	/**
+	 * Updates the shadow copies of the source, once {@link #submit(Command)} has accepted the command
+	 * Nothing by default
+	 */
+	void updateShadow()
+	{
+	}
 
 	static abstract class SourceCommand<T extends Source> extends Command
 	{
@@ -80,6 +166,77 @@ abstract class Command
 		}
 	}
 
+	/**
+	 * A SET command that, while it is still waiting in the queue, can take the value
+	 * of a newer SET of the same (source, dataType) instead of letting it be queued
+	 * Only until another command of the source is queued : the SETs of other dataTypes don't depend on it,
+	 * but play, offset or a batch could see the newer value too early
+	 * Only used when {@link AudioSystem#setCommandCoalescing(boolean)} is enabled
+	 */
+	static abstract class CoalescableCommand extends SourceCommand
+	{
+		private static final AtomicLong coalesced = new AtomicLong();
+		private boolean taken = false;
+
+		CoalescableCommand(Source source)
+		{
+			super(source);
+		}
+
+		abstract int getDataType();
+		/**
+		 * Copies the value of newer into this command
+		 */
+		abstract void copyValue(CoalescableCommand newer);
+
+		private synchronized boolean tryReplaceBy(CoalescableCommand newer)
+		{
+			if (this.taken)
+				return false;
+			this.copyValue(newer);
+			return true;
+		}
+
+		/**
+		 * Called by the CommandThread before handling the command
+		 * Its value can't be changed after that
+		 */
+		void take()
+		{
+			synchronized (this)
+			{
+				this.taken = true;
+			}
+			this.source.getPendingSets().remove(this.getDataType(), this);
+		}
+
+		/**
+		 * Called by submit, holding the lock of the pending SETs of the source
+		 * @return true if the value has been given to a pending command, so this one mustn't be queued
+		 */
+		boolean coalesce()
+		{
+			if (!AudioSystem.isCommandCoalescing())
+				return false;
+
+			Map<Integer, CoalescableCommand> pending = this.source.getPendingSets();
+			CoalescableCommand previous = pending.get(this.getDataType());
+			if (previous != null && previous.tryReplaceBy(this))
+			{
+				coalesced.incrementAndGet();
+				((Command)previous).ended.thenRun(this::setEnded);
+				return true;
+			}
+			pending.put(this.getDataType(), this);
+			return false;
+		}
+
+		static long getCoalescedNumber()
+		{
+			return coalesced.get();
+		}
+	}
+
 	static class CommandCleanUp extends Command
 	{
 		CommandCleanUp(){}
@@ -87,9 +244,49 @@ abstract class Command
 		void handle()
 		{
 			CommandThread.getThread().quit();
-			CommandThread.getThread().stopAllLoadings();
 			for (Iterator<Source> iter = AudioSystem.getSourcesIterator();iter.hasNext();)
 				CommandDeleteSource.deleteSource(iter.next());
+			CommandThread.getThread().stopAllLoadings();
+			SoundCache.clear();
+			DecoderPool.shutdown();
+		}
+	}
+
+	/**
+	 * Handles all the commands of a {@link Batch} in a single loop of the CommandThread
+	 * The context is suspended meanwhile so the changes are applied together
+	 */
+	static class CommandBatch extends Command
+	{
+		final List<Command> commands;
+		/**
+		 * The sources of the commands, sorted by id
+		 */
+		final List<Source> sources;
+		CommandBatch(Batch batch)
+		{
+			this.commands = batch.getCommands();
+			TreeMap<Integer, Source> sources = new TreeMap<>();
+			for (Command c : this.commands)
+				sources.put(((SourceCommand)c).source.getOpenALSourceID(), ((SourceCommand)c).source);
+			this.sources = new ArrayList<>(sources.values());
+		}
+		@Override
+		void handle()
+		{
+			ALC10.alcSuspendContext(AudioSystem.getContext());
+			for (Command c : this.commands)
+				c.handle();
+			ALC10.alcProcessContext(AudioSystem.getContext());
+
+			for (Command c : this.commands)
+				c.setEnded();
+		}
+		@Override
+		void updateShadow()
+		{
+			for (Command c : this.commands)
+				c.updateShadow();
 		}
 	}
 
@@ -99,6 +296,7 @@ abstract class Command
 		final InputStreamSource streamSource;
 		final Class<? extends Codec> codec;
 		final int bufferSize, bufferNumber;
+		final boolean mono, resident;
 
 		CommandNewSource()
 		{
@@ -106,14 +304,26 @@ abstract class Command
 			this.codec = null;
 			this.bufferSize = 0;
 			this.bufferNumber = 0;
+			this.mono = false;
+			this.resident = false;
+		}
+
+		CommandNewSource(InputStreamSource streamSource, int bS, int bN, Class<? extends Codec> c, boolean mono)
+		{
+			this(streamSource, bS, bN, c, mono, false);
 		}
 
-		CommandNewSource(InputStreamSource streamSource, int bS, int bN, Class<? extends Codec> c)
+		/**
+		 * @param resident true for a streaming source which decodes only while it plays
+		 */
+		CommandNewSource(InputStreamSource streamSource, int bS, int bN, Class<? extends Codec> c, boolean mono, boolean resident)
 		{
 			this.streamSource = streamSource;
 			this.bufferSize = bS;
 			this.bufferNumber = bN; // Source
 			this.codec = c;
+			this.mono = mono;
+			this.resident = resident;
 		}
 
 		@Override
@@ -131,9 +341,9 @@ abstract class Command
 			if (this.streamSource == null)
 				this.source = new ManualSource(sourceId);
 			else if (this.bufferNumber != 0)
-				this.source = new StreamingSource(sourceId, this.streamSource, this.bufferSize, this.bufferNumber, this.codec);
+				this.source = new StreamingSource(sourceId, this.streamSource, this.bufferSize, this.bufferNumber, this.codec, this.mono, this.resident);
 			else
-				this.source = new SoundSource(sourceId, this.streamSource, this.bufferSize, this.codec);
+				this.source = SoundCache.newSoundSource(sourceId, this.streamSource, this.bufferSize, this.codec, this.mono);
 
 			AudioSystem.addSource(this.source);
 		}
@@ -145,16 +355,20 @@ abstract class Command
 		void handle()
 		{
 			deleteSource(this.source);
-
-			for (Iterator<Source> iter = AudioSystem.getSourcesIterator();iter.hasNext();)
-				if (iter.next() == this.source)
-					iter.remove();
+			AudioSystem.removeSource(this.source);
 		}
 		static void deleteSource(Source source)
 		{
 			AL10.alSourceStop(source.getOpenALSourceID());
 
+			if (source.isAutomatic() && !CommandThread.getThread().removeLoadingForSource((AutomaticSource)source))
+				((AutomaticSource)source).closeCodec(); // Otherwise, the loading closes it
+			if (source.isAutomatic())
+				((AutomaticSource)source).setOpened();
+
 			deleteBuffersFromSource(source);
+			if (source instanceof SoundSource && ((SoundSource)source).getCacheEntry() != null)
+				SoundCache.release(((SoundSource)source).getCacheEntry(), (SoundSource)source);
 
 			AL10.alDeleteSources(source.getOpenALSourceID()); //NE SUPPRIMER PAS LES BUFFERS !
 		}
@@ -169,29 +383,17 @@ abstract class Command
 			{
 				int numberOfBuffers = AL10.alGetSourcei(source.getOpenALSourceID(), AL10.AL_BUFFERS_QUEUED);
 				for (int i=0;i<numberOfBuffers;i++)
-				{
-					int bufferID = AL10.alSourceUnqueueBuffers(source.getOpenALSourceID());
-					if (getBufferUse(bufferID) == 1)
-						AL10.alDeleteBuffers(bufferID);
-				}
+					BufferRegistry.release(AL10.alSourceUnqueueBuffers(source.getOpenALSourceID()));
 			}
 			else if (sourceType == AL11.AL_STATIC)
 			{
 				int bufferID = AL10.alGetSourcei(source.getOpenALSourceID(), AL10.AL_BUFFER);
 				AL10.alSourcei(source.getOpenALSourceID(), AL10.AL_BUFFER, 0);
-				if (getBufferUse(bufferID) == 1)
-					AL10.alDeleteBuffers(bufferID);
+				BufferRegistry.release(bufferID); // Kept if the cache still uses it
 			}
-			
-		}
-		static int getBufferUse(int bufferID)
-		{
-			int use = 0;
-			for (Iterator<Source> iter = AudioSystem.getSourcesIterator();iter.hasNext();)
-				for (AudioBuffer a : iter.next().getSourceBuffers())
-					if (a.getOpenALBufferID() == bufferID)
-						use ++;
-			return use;
+
+			if (source instanceof StreamingSource)
+				((StreamingSource)source).clearBuffers();
 		}
 	}
 
@@ -208,6 +410,16 @@ abstract class Command
 			if (state)
 			{
 				Logger.debug("Play source "+source.getOpenALSourceID());
+				if (source instanceof SoundSource)
+				{
+					if (((SoundSource)source).needsDownmix() && ((SoundSource)source).canUnload())
+						((SoundSource)source).unload();
+					if (((SoundSource)source).isUnloaded()) // Dropped to free memory, or to be reloaded in mono
+						SoundCache.load((SoundSource)source);
+					((SoundSource)source).played();
+				}
+				else if (source instanceof StreamingSource && ((StreamingSource)source).isUnloaded())
+					((StreamingSource)source).load(0);
 				if (!source.isAutomatic() || !((AutomaticSource)source).isSourceLoading())
 					AL10.alSourcePlay(source.getOpenALSourceID());
 			}
@@ -262,57 +474,64 @@ abstract class Command
 		}
 	}
 
-	static class CommandVolume extends GetSetCommand
+	/**
+	 * The getters read the shadow copies, so the property commands only set
+	 */
+	static class CommandVolume extends CoalescableCommand
 	{
 		float value;
-		CommandVolume(Source source, float v){super(SET, source);this.value = v;}
-		CommandVolume(Source source){super(GET, source);}
+		CommandVolume(Source source, float v){super(source);this.value = v;}
+		@Override
+		int getDataType() {return AL10.AL_GAIN;}
+		@Override
+		void copyValue(CoalescableCommand newer) {this.value = ((CommandVolume)newer).value;}
+		@Override
+		void updateShadow() {this.source.setSourceVolume(this.value);}
 		@Override
 		void handle()
 		{
-			if (this.get)
-				this.value = this.source.getSourceVolume();
-			else
-			{
-				this.source.setSourceVolume(this.value);
-				AL10.alSourcef(this.source.getOpenALSourceID(), AL10.AL_GAIN, this.value * AudioSystem.masterVolume);
-			}
+			AL10.alSourcef(this.source.getOpenALSourceID(), AL10.AL_GAIN, this.value * AudioSystem.masterVolume);
 		}
 	}
 
-	static class CommandFloat extends GetSetCommand
+	static class CommandFloat extends CoalescableCommand
 	{
 		float value;int dataType;
-		CommandFloat(Source source, int data, float v){super(SET, source);this.value = v;this.dataType = data;}
-		CommandFloat(Source source, int data){super(GET, source);this.dataType = data;}
+		CommandFloat(Source source, int data, float v){super(source);this.value = v;this.dataType = data;}
+		@Override
+		int getDataType() {return this.dataType;}
+		@Override
+		void copyValue(CoalescableCommand newer) {this.value = ((CommandFloat)newer).value;}
+		@Override
+		void updateShadow() {this.source.setShadowFloat(this.dataType, this.value);}
 		@Override
 		void handle()
 		{
-			if (this.get)
-				this.value = AL10.alGetSourcef(this.source.getOpenALSourceID(), this.dataType);
-			else
-				AL10.alSourcef(this.source.getOpenALSourceID(), this.dataType, this.value);
+			AL10.alSourcef(this.source.getOpenALSourceID(), this.dataType, this.value);
 		}
 	}
 
-	static class CommandVector extends GetSetCommand
+	static class CommandVector extends CoalescableCommand
 	{
 		Vector3f value; int dataType;
-		CommandVector(Source source, int data, Vector3f p){super(SET, source);this.value = p; this.dataType = data;}
-		CommandVector(Source source, int data){super(GET, source);this.dataType = data;}
+		CommandVector(Source source, int data, Vector3f p)
+		{
+			super(source);
+			this.value = new Vector3f(p.x, p.y, p.z); // The caller may modify its vector afterwards
+			this.dataType = data;
+		}
+		@Override
+		int getDataType() {return this.dataType;}
+		@Override
+		void copyValue(CoalescableCommand newer) {this.value = ((CommandVector)newer).value;}
+		@Override
+		void updateShadow() {this.source.setShadowVector(this.dataType, this.value);}
 		@Override
 		void handle()
 		{
-			if (this.get)
-			{
-				ByteBuffer temp = ByteBuffer.allocateDirect(12);
-				temp.order(ByteOrder.nativeOrder());
-				FloatBuffer buf = temp.asFloatBuffer();
-				AL10.alGetSourcef(this.source.getOpenALSourceID(), this.dataType, buf);
-				this.value = new Vector3f(buf.get(), buf.get(), buf.get());
-			}
-			else
-				AL10.alSource3f(this.source.getOpenALSourceID(), this.dataType, this.value.x, this.value.y, this.value.z);
+			AL10.alSource3f(this.source.getOpenALSourceID(), this.dataType, this.value.x, this.value.y, this.value.z);
+			if (this.dataType == AL10.AL_POSITION && this.source instanceof SoundSource)
+				((SoundSource)this.source).positioned();
 		}
 	}
 
@@ -334,18 +553,41 @@ abstract class Command
 		}
 	}
 
-	static class CommandRelative extends GetSetCommand
+	static class CommandRelative extends SourceCommand
 	{
-		boolean value; int number;
-		CommandRelative(Source source, boolean v){super(SET, source);this.value = v;}
-		CommandRelative(Source source){super(GET, source);}
+		boolean value;
+		CommandRelative(Source source, boolean v){super(source);this.value = v;}
+		@Override
+		void updateShadow() {this.source.setShadowRelative(this.value);}
 		@Override
 		void handle()
 		{
-			if (this.get)
-				AL10.alSourcei(this.source.getOpenALSourceID(), AL10.AL_SOURCE_RELATIVE, this.value ? AL10.AL_TRUE : AL10.AL_FALSE);
-			else
-				this.value = AL10.alGetSourcei(this.source.getOpenALSourceID(), AL10.AL_SOURCE_RELATIVE) == AL10.AL_TRUE;
+			AL10.alSourcei(this.source.getOpenALSourceID(), AL10.AL_SOURCE_RELATIVE, this.value ? AL10.AL_TRUE : AL10.AL_FALSE);
+		}
+	}
+
+	static class CommandSoundCacheSize extends Command
+	{
+		final long size;
+		CommandSoundCacheSize(long size) {this.size = size;}
+
+		@Override
+		void handle()
+		{
+			SoundCache.setMaxSize(this.size);
+		}
+	}
+
+	static class CommandMemoryBudget extends Command
+	{
+		final long budget;
+		CommandMemoryBudget(long budget) {this.budget = budget;}
+
+		@Override
+		void handle()
+		{
+			MemoryBudget.setBudget(this.budget);
+			MemoryBudget.enforce();
 		}
 	}
 
@@ -389,23 +631,9 @@ abstract class Command
 		@Override
 		void handle()
 		{
-			this.buf = ((AutomaticSource)this.source).getSourceBuffers();
+			this.buf = this.source.getSourceBuffers();
 		}
     }
-    static class CommandGetDatas extends SourceCommand<AutomaticSource>
-    {
-    	int channels, samplerate, sampleSize, totalSize;
-    	CommandGetDatas(AutomaticSource source){super(source);}
-    	@Override
-		void handle()
-    	{
-    		//Codec can change, so we need to put this on the thread
-    		this.channels = this.source.getCurrentCodec().getChannelsNumber();
-    		this.samplerate = this.source.getCurrentCodec().getSamplerate();
-    		this.sampleSize = this.source.getCurrentCodec().getBitsPerSample();
-    		this.totalSize = this.source.getCurrentCodec().getTotalSize();
-    	}
-    }
     static class CommandAttenuationMod extends Command
 	{
 		int value;
@@ -435,14 +663,21 @@ abstract class Command
 				this.value = AL10.alGetSourcei(this.source.getOpenALSourceID(), AL11.AL_SAMPLE_OFFSET);
 			else if (!(this.source instanceof StreamingSource))
 				AL10.alSourcei(this.source.getOpenALSourceID(), AL11.AL_SAMPLE_OFFSET, this.value);
+			else if (((StreamingSource)this.source).isUnloaded())
+			{ // Resident source which isn't decoding, it starts from the offset at its next play
+				if (this.value != 0)
+					((StreamingSource)this.source).load(this.value);
+			}
 			else
 			{
 				StreamingSource ss = (StreamingSource)this.source;
-				if (this.value >= ss.getProcessedBuffer() * ss.getBufferSize() / ss.getCurrentCodec().getSampleSize() &&
-						this.value < (ss.getProcessedBuffer() + ss.getSourceBuffers().length) * ss.getBufferSize() / ss.getCurrentCodec().getSampleSize())
+				Codec codec = ss.getCurrentCodec(); // null while a loading opens a new one
+				int sampleSize = codec == null ? 0 : codec.getSampleSize();
+				if (codec != null && this.value >= ss.getProcessedBuffer() * ss.getBufferSize() / sampleSize &&
+						this.value < (ss.getProcessedBuffer() + ss.getSourceBuffers().length) * ss.getBufferSize() / sampleSize)
 				{
-					int bufferPrior = this.value - ss.getProcessedBuffer() * ss.getBufferSize() / ss.getCurrentCodec().getSampleSize();
-					bufferPrior = bufferPrior / (ss.getBufferSize() / ss.getCurrentCodec().getSampleSize());
+					int bufferPrior = this.value - ss.getProcessedBuffer() * ss.getBufferSize() / sampleSize;
+					bufferPrior = bufferPrior / (ss.getBufferSize() / sampleSize);
 					
 					if (ss.shouldBePlaying() && !ss.isSourceLoading())
 						CommandThread.getThread().addLoading(ss, 0);
@@ -450,11 +685,11 @@ abstract class Command
 					// We remove unused buffers
 					for (int i=0;i<bufferPrior;i++)
 					{
-						AL10.alSourceUnqueueBuffers(ss.getOpenALSourceID());
-						ss.removeBufferData();
+						BufferRegistry.release(AL10.alSourceUnqueueBuffers(ss.getOpenALSourceID()));
+						ss.removeBufferData().release();
 					}
 					
-					AL10.alSourcei(this.source.getOpenALSourceID(), AL11.AL_SAMPLE_OFFSET, this.value - (ss.getProcessedBuffer() + bufferPrior) * ss.getBufferSize() / ss.getCurrentCodec().getSampleSize());
+					AL10.alSourcei(this.source.getOpenALSourceID(), AL11.AL_SAMPLE_OFFSET, this.value - (ss.getProcessedBuffer() + bufferPrior) * ss.getBufferSize() / sampleSize);
 				}
 				else
 				{ // Need to reload the stream because the value is before the earliest buffer in memory
@@ -464,7 +699,8 @@ abstract class Command
 						AudioSystem.setError(AudioSystem.ERROR_CANT_READ_STREAM);
 						return;
 					}
-					CommandThread.getThread().addLoading((StreamingSource)this.source, this.value);
+					// Waits for a cancelled loading still using the codec, and opens a new one
+					CommandThread.getThread().addLoading((StreamingSource)this.source, this.value, true);
 				}
 			}
 		}
@@ -1,23 +1,36 @@
 package audio;
 
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 import org.lwjgl.openal.AL10;
+import org.lwjgl.openal.AL11;
 
-import util.CustomTimer;
 import util.Logger;
 import util.UpdateList;
 
 class CommandThread extends Thread
 {
-	private boolean continu;
-	public UpdateList<Command> commandList = new UpdateList<>();
+	private volatile boolean continu;
+	/**
+	 * Lock-free queue : any thread can add commands, only this thread polls them
+	 */
+	private final ConcurrentLinkedQueue<Command> commandList = new ConcurrentLinkedQueue<>();
 	private static CommandThread instance = new CommandThread();
-	private UpdateList<LoadingThread> loadings = new UpdateList<>();
-	private CustomTimer timer = new CustomTimer();
-	private boolean oneLoadingOver = false;
+	private UpdateList<Loading> loadings = new UpdateList<>();
+	private volatile boolean oneLoadingOver = false;
+	/**
+	 * Cancelled or failed loadings which don't use their codec anymore
+	 */
+	private final ConcurrentLinkedQueue<Loading> exitedLoadings = new ConcurrentLinkedQueue<>();
+	/**
+	 * Minimum time between two updates of the sources, also the period of the callbacks
+	 */
 	private int refreshPeriod = 1000000;
+	private static final long NO_DEADLINE = Long.MAX_VALUE;
 
 	public static CommandThread getThread()
 	{
@@ -30,44 +43,26 @@ class CommandThread extends Thread
 	@Override
 	public void run()
 	{
+		long lastUpdate = System.nanoTime() - this.refreshPeriod, nextUpdate = lastUpdate;
 		while (this.continu)
 		{
-			if (this.timer.getDifference() >= this.refreshPeriod)
+			if (nextUpdate != NO_DEADLINE && System.nanoTime() - nextUpdate >= 0)
 			{
-				for (Iterator<Source> iter = AudioSystem.getSourcesIterator() ; iter.hasNext() ; )
-				{ // Update every playing source (load new buffer, discard read ones or starts loading)
-					Source source = iter.next();
-					this.updatePlayingSource(source);
-
-					int error;
-			        if ((error = AL10.alGetError()) != 0)
-			        {
-			        	Logger.error("Error during updating source "+source.getOpenALSourceID()+", OpenAL error : "+error);
-			        	AudioSystem.setError(error);
-			        }
-				}
-
-				for (Source s : AudioSystem.getSources())
-				{ // Handle callbacks of all sources
-					List<SourceCallBack> l = s.getCallBack().getList();
-					for (SourceCallBack sc : l)
-						try {sc.callback();}
-						catch(Exception e) {Logger.error("Error during source "+s.getOpenALSourceID()+" callback : "+sc, e);}
-				}
-
-				this.timer.setValue(this.timer.getDifference() % this.refreshPeriod);
+				lastUpdate = System.nanoTime();
+				nextUpdate = this.updateSources();
 			}
 
 			if (this.atLeastOneloadingOver())
 			{
-				for (Iterator<LoadingThread> iter = this.loadings.getList().iterator();iter.hasNext();)
+				for (Iterator<Loading> iter = this.loadings.getList().iterator();iter.hasNext();)
 				{ // Handle finished loading
 					
-					LoadingThread th = iter.next();
+					Loading th = iter.next();
 					if (th.isLoadingOver())
 					{
 						this.handleLoadedBuffer(th);
 						iter.remove();
+						nextUpdate = Math.min(nextUpdate, lastUpdate + this.refreshPeriod);
 	
 						int error;
 				        if ((error = AL10.alGetError()) != 0)
@@ -79,21 +74,35 @@ class CommandThread extends Thread
 				}
 			}
 			
-			if (this.commandList.getList().size() > 0)
-			{
-				for (Iterator<Command> iter = this.commandList.getList().iterator();iter.hasNext() && this.continu;)
-				{ // Handle commands (Error are handle by the command itself)
-					Command c = iter.next();
-					c.handle();
-					c.setEnded();
-					iter.remove();
+			Loading exited;
+			while ((exited = this.exitedLoadings.poll()) != null)
+				this.handleExitedLoading(exited);
+
+			Command c;
+			while (this.continu && (c = this.commandList.poll()) != null)
+			{ // Handle commands, checking OpenAL errors after each one
+				if (c instanceof Command.CoalescableCommand)
+					((Command.CoalescableCommand)c).take();
+				c.handle();
+
+				int error;
+				if ((error = AL10.alGetError()) != 0)
+				{
+					Logger.error("Error in command "+c.getClass().getSimpleName()+", OpenAL error : "+error);
+					AudioSystem.setError(error);
 				}
+
+				c.setEnded();
+				nextUpdate = Math.min(nextUpdate, lastUpdate + this.refreshPeriod);
 			}
 
-			if (this.continu && this.commandList.getList().size() == 0 && !this.atLeastOneloadingOver())
-				try {
-					Thread.sleep(0, (int)Math.max(0, this.refreshPeriod - this.timer.getDifference()));
-				} catch(InterruptedException e) {}
+			if (this.continu && this.commandList.isEmpty() && !this.oneLoadingOver && this.exitedLoadings.isEmpty())
+			{ // Sleeps until the next deadline, a new command or a finished loading
+				if (nextUpdate == NO_DEADLINE)
+					LockSupport.park(this);
+				else
+					LockSupport.parkNanos(this, nextUpdate - System.nanoTime());
+			}
 		}
 	}
 	void quit()
@@ -102,8 +111,8 @@ class CommandThread extends Thread
 	}
 	void addCommand(Command c)
 	{
-		this.commandList.add(c);
-		this.interrupt();
+		this.commandList.offer(c);
+		LockSupport.unpark(this);
 	}
 	synchronized boolean atLeastOneloadingOver()
 	{
@@ -114,10 +123,66 @@ class CommandThread extends Thread
 	synchronized void notifyLoadingOver()
 	{
 		this.oneLoadingOver = true;
-		this.interrupt();
+		LockSupport.unpark(this);
+	}
+	/**
+	 * Called by a cancelled or failed loading once it has stopped
+	 */
+	void notifyLoadingExited(Loading loading)
+	{
+		this.exitedLoadings.offer(loading);
+		LockSupport.unpark(this);
+	}
+	/**
+	 * Closes the codec the loading used, and starts the loading asked while it was running
+	 * The source is marked as loading until then, so only one loading uses its codec at a time
+	 */
+	private void handleExitedLoading(Loading loading)
+	{
+		AutomaticSource source = loading.source;
+		boolean failed = false;
+		if (source.getCancelledLoading() == loading)
+			source.setCancelledLoading(null);
+		else if (loading.hasFailed())
+		{
+			this.loadings.getList().remove(loading);
+			AudioSystem.setError(AudioSystem.ERROR_CANT_READ_STREAM);
+			source.setOpened();
+			failed = true;
+		}
+		else // Cancelled by stopAllLoadings
+			return;
+
+		Codec codec = loading.getCodec();
+		if (codec != null && codec != source.getCurrentCodec())
+			codec.quit();
+		source.closeCodec();
+		source.setLoading(false);
+		if (failed && source instanceof SoundSource && ((SoundSource)source).getCacheEntry() != null)
+			SoundCache.failed(((SoundSource)source).getCacheEntry(), (SoundSource)source);
+
+		int toSkip = source.getDeferredSkip();
+		if (toSkip >= 0)
+		{
+			boolean open = source.isDeferredOpen();
+			source.clearDeferredLoading();
+			this.addLoading(source, toSkip, open);
+		}
 	}
 	void addLoading(AutomaticSource source, int toSkip)
 	{
+		this.addLoading(source, toSkip, false);
+	}
+	/**
+	 * @param open true to open a new codec in the loading before decoding
+	 */
+	void addLoading(AutomaticSource source, int toSkip, boolean open)
+	{
+		if (source.getCancelledLoading() != null)
+		{ // Started once the cancelled loading doesn't use the codec anymore
+			source.deferLoading(toSkip, open);
+			return;
+		}
 		if (!source.isSourceLoading())
 		{
 			Logger.debug("Start loading source "+source.getOpenALSourceID());
@@ -127,75 +192,223 @@ class CommandThread extends Thread
 				sc.startsLoading(toSkip);
 
 			source.setLoading(true);
-			this.loadings.add(new LoadingThread(source, toSkip));
-			this.interrupt();
+			Loading loading = new Loading(source, toSkip, open, this.getStarvingDate(source));
+			this.loadings.add(loading);
+			DecoderPool.submit(loading);
+			LockSupport.unpark(this);
 		}
 	}
-	void removeLoadingForSource(AutomaticSource s)
+	/**
+	 * Computes when the source will run out of datas, from the audio still queued
+	 * (queued buffers minus processed ones, less what has been played of the first one)
+	 * Every queued buffer is counted as full, but the last one of a stream can be shorter than {@link AutomaticSource#getBufferSize()} :
+	 * the date can then be a little late, only near the end of the stream, where no more datas are needed
+	 * @return the date in {@link System#nanoTime()} or {@link Loading#NOT_URGENT} if the source isn't playing
+	 */
+	private long getStarvingDate(AutomaticSource source)
+	{
+		if (!source.shouldBePlaying())
+			return Loading.NOT_URGENT;
+		if (!(source instanceof StreamingSource) || source.getSampleRate() <= 0)
+			return System.nanoTime(); // A sound waiting to be played
+
+		int queued = AL10.alGetSourcei(source.getOpenALSourceID(), AL10.AL_BUFFERS_QUEUED),
+			processed = AL10.alGetSourcei(source.getOpenALSourceID(), AL10.AL_BUFFERS_PROCESSED);
+		long remaining = 0;
+		if (queued > processed)
+			remaining = (long)(queued - processed) * source.getBufferSize()
+						- Math.max(0, AL10.alGetSourcei(source.getOpenALSourceID(), AL11.AL_SAMPLE_OFFSET) - (long)processed * source.getBufferSize());
+
+		float pitch = source.getPitch();
+		return System.nanoTime() + Math.max(0, (long)(remaining * 1000000000d / source.getSampleRate() / (pitch > 0 ? pitch : 1)));
+	}
+	/**
+	 * Cancels the loading of the source, and the one asked after it
+	 * A running loading keeps the source loading until it exits, then its codec is closed
+	 * (see {@link #handleExitedLoading(Loading)}). Loadings asked meanwhile wait for it
+	 * @return true if a loading is still running, in which case the codec must not be used
+	 */
+	boolean removeLoadingForSource(AutomaticSource s)
 	{
 		Logger.debug("Stop loading source "+s.getOpenALSourceID());
-		for (Iterator<LoadingThread> iter = this.loadings.getList().iterator();iter.hasNext();)
-			if (iter.next().source == s)
-				iter.remove(); // Doesn't stop it, but make sure we don't with the output buffer
+		for (Iterator<Loading> iter = this.loadings.getList().iterator();iter.hasNext();)
+		{
+			Loading loading = iter.next();
+			if (loading.source == s)
+			{
+				if (DecoderPool.cancel(loading))
+					s.setCancelledLoading(loading);
+				else if (loading.isLoadingOver()) // Its buffer won't be used
+					loading.getOutBuffer().release();
+				iter.remove();
+			}
+		}
+		s.clearDeferredLoading();
+		if (s.getCancelledLoading() == null)
+			s.setLoading(false);
+		return s.getCancelledLoading() != null;
 	}
 	void stopAllLoadings()
 	{
+		for (Loading loading : this.loadings.getList())
+		{
+			DecoderPool.cancel(loading);
+			loading.source.setLoading(false);
+			loading.source.setCancelledLoading(null);
+			loading.source.clearDeferredLoading();
+			loading.source.setOpened();
+		}
 		this.loadings = new UpdateList<>();
 	}
 	boolean shouldContinu()
 	{
 		return this.continu;
 	}
-	void updatePlayingSource(Source source)
+	/**
+	 * Updates every source that isn't idle and handles the callbacks
+	 * @return the date (in {@link System#nanoTime()}) of the next needed update, or NO_DEADLINE
+	 */
+	private long updateSources()
 	{
+		long now = System.nanoTime(), next = NO_DEADLINE;
+		for (Iterator<Source> iter = AudioSystem.getSourcesIterator() ; iter.hasNext() ; )
+		{ // Update every playing source (load new buffer, discard read ones or starts loading)
+			Source source = iter.next();
+			long delay = this.updatePlayingSource(source);
+			if (delay >= 0)
+				next = Math.min(next, now + Math.max(delay, this.refreshPeriod));
+
+			int error;
+			if ((error = AL10.alGetError()) != 0)
+			{
+				Logger.error("Error during updating source "+source.getOpenALSourceID()+", OpenAL error : "+error);
+				AudioSystem.setError(error);
+			}
+		}
+
+		for (Iterator<Source> iter = AudioSystem.getSourcesIterator() ; iter.hasNext() ; )
+		{ // Handle callbacks of all sources, they are called every refreshPeriod
+			Source s = iter.next();
+			List<SourceCallBack> l = s.getCallBack().getList();
+			if (!l.isEmpty())
+				next = Math.min(next, now + this.refreshPeriod);
+			for (SourceCallBack sc : l)
+				try {sc.callback();}
+				catch(Exception e) {Logger.error("Error during source "+s.getOpenALSourceID()+" callback : "+sc, e);}
+		}
+		return next;
+	}
+	/**
+	 * Sound sources and idle sources (stopped, with no processed buffer) are skipped
+	 * @return the time in nanoseconds before the source needs another update, or -1 if it doesn't
+	 */
+	long updatePlayingSource(Source source)
+	{
+		if (!(source instanceof StreamingSource) && !(source instanceof ManualSource))
+			return -1;
+
+		int state = AL10.alGetSourcei(source.getOpenALSourceID(), AL10.AL_SOURCE_STATE);
+		int processed = AL10.alGetSourcei(source.getOpenALSourceID(), AL10.AL_BUFFERS_PROCESSED);
+		if (state != AL10.AL_PLAYING && processed == 0)
+			return -1;
+
 		if (source instanceof StreamingSource)
 		{
 			StreamingSource streamingSource = (StreamingSource)source;
-			int processed = AL10.alGetSourcei(source.getOpenALSourceID(), AL10.AL_BUFFERS_PROCESSED);
+			Codec codec = streamingSource.getCurrentCodec();
+			boolean over = codec == null || codec.isStreamOver(); // No codec while a loading opens a new one
+			if (state == AL10.AL_STOPPED && streamingSource.shouldBePlaying() && !streamingSource.isUnderrunning()
+					&& (streamingSource.isLooping() || !over))
+			{ // Ran dry while it should still be playing
+				Logger.debug("Underrun on source "+source.getOpenALSourceID());
+				streamingSource.setUnderrunning(true);
+			}
+
 			if (processed > 0)
 			{
-				if (streamingSource.getCurrentCodec().isStreamOver())
-					if (streamingSource.isLooping())
-					{
-						streamingSource.addLoop();
-						for (SourceCallBack sc : streamingSource.getCallBack().getList())
-							sc.looped();
-					}
-					else
-						streamingSource.setShouldBePlaying(false);
+				if (codec != null && codec.isStreamOver() && !streamingSource.isLooping())
+					streamingSource.setShouldBePlaying(false);
 
 				if (streamingSource.shouldBePlaying() && !streamingSource.isSourceLoading())
 					this.addLoading(streamingSource, 0);
 
 				for (int i=0;i<processed;i++)
 				{
-					AL10.alSourceUnqueueBuffers(streamingSource.getOpenALSourceID());
+					BufferRegistry.release(AL10.alSourceUnqueueBuffers(streamingSource.getOpenALSourceID()));
 					AudioBuffer buffer = streamingSource.removeBufferData();
+					this.playLoopPoints(streamingSource, buffer, Integer.MAX_VALUE);
 					for (SourceCallBack sc : streamingSource.getCallBack().getList())
 						sc.bufferProcessed(buffer);
+					buffer.release();
 				}
+
+				if (streamingSource.isResident() && state == AL10.AL_STOPPED && !streamingSource.shouldBePlaying()
+						&& !streamingSource.isSourceLoading() && streamingSource.getSourceBuffers().length == 0)
+					streamingSource.unload(); // Played to its end, only the encoded datas are kept
 			}
+
+			AudioBuffer playing = streamingSource.getPlayingBuffer();
+			if (playing != null && playing.getNextLoopPoint() >= 0)
+				this.playLoopPoints(streamingSource, playing, AL10.alGetSourcei(source.getOpenALSourceID(), AL11.AL_SAMPLE_OFFSET));
 		}
 		if (source instanceof ManualSource)
 		{
-			int processed = AL10.alGetSourcei(source.getOpenALSourceID(), AL10.AL_BUFFERS_PROCESSED);
 			for (int i=0;i<processed;i++)
 			{
-				AL10.alSourceUnqueueBuffers(source.getOpenALSourceID());
+				BufferRegistry.release(AL10.alSourceUnqueueBuffers(source.getOpenALSourceID()));
 				AudioBuffer buffer = ((ManualSource)source).removeBufferData();
 				for (SourceCallBack sc : ((ManualSource)source).getCallBack().getList())
 					sc.bufferProcessed(buffer);
 			}
 		}
+
+		return state == AL10.AL_PLAYING ? this.timeBeforeProcessed(source) : -1;
 	}
-	void handleLoadedBuffer(LoadingThread th)
+	/**
+	 * Calls {@link SourceCallBack#looped()} for each loop point of the buffer played before the offset
+	 */
+	private void playLoopPoints(StreamingSource source, AudioBuffer buffer, int offset)
 	{
-		Logger.debug("Loaded a "+th.getOutBuffer().toByteBuffer().limit()+" buffer for source "+th.source.getOpenALSourceID());
+		int point;
+		while ((point = buffer.getNextLoopPoint()) >= 0 && point <= offset)
+		{
+			buffer.loopPointPlayed();
+			source.addLoop();
+			for (SourceCallBack sc : source.getCallBack().getList())
+				sc.looped();
+		}
+	}
+	/**
+	 * Computes when the first queued buffer of the source will be fully played,
+	 * or will reach its next loop point, from its size, the samplerate and the pitch
+	 * @return the time in nanoseconds before the buffer is processed
+	 */
+	private long timeBeforeProcessed(Source source)
+	{
+		AudioBuffer[] buffers = source.getSourceBuffers();
+		if (buffers.length == 0 || buffers[0].getCodec() == null)
+			return this.refreshPeriod;
+
+		Codec codec = buffers[0].getCodec();
+		int end = buffers[0].getNextLoopPoint();
+		if (end < 0)
+			end = codec.byteSizeToSampleNumber(buffers[0].getLimit());
+		int remaining = end - AL10.alGetSourcei(source.getOpenALSourceID(), AL11.AL_SAMPLE_OFFSET);
+		float pitch = AL10.alGetSourcef(source.getOpenALSourceID(), AL10.AL_PITCH);
+
+		return Math.max(0, (long)(remaining * 1000000000d / codec.getSamplerate() / (pitch > 0 ? pitch : 1)));
+	}
+	void handleLoadedBuffer(Loading th)
+	{
+		Logger.debug("Loaded a "+th.getOutBuffer().getLimit()+" buffer for source "+th.source.getOpenALSourceID());
 		th.source.setLoading(false);
 		AudioBuffer buf = th.getOutBuffer();
 
 		if (buf.getLimit() == 0)
+		{
+			buf.release();
 			return;
+		}
 
 		if (th.getToSkip() != 0)
 		{ // We need to get rid of the current buffers
@@ -203,14 +416,22 @@ class CommandThread extends Thread
 			Command.CommandDeleteSource.deleteBuffersFromSource(th.source);
 		}
 
-		buf.setOpenALBufferID(AL10.alGenBuffers());
-		AL10.alBufferData(buf.getOpenALBufferID(), buf.getCodec().getALFormat(), buf.toByteBuffer(), buf.getCodec().getSamplerate());
+		buf.setOpenALBufferID(BufferRegistry.create());
+		if (buf.isDirect()) // Decoded in native memory, no copy needed
+			AL10.alBufferData(buf.getOpenALBufferID(), buf.getCodec().getALFormat(), buf.getDirectData(), buf.getCodec().getSamplerate());
+		else
+		{
+			ByteBuffer data = buf.toByteBuffer(DirectBufferPool.borrow(buf.getLimit()));
+			AL10.alBufferData(buf.getOpenALBufferID(), buf.getCodec().getALFormat(), data, buf.getCodec().getSamplerate());
+			DirectBufferPool.release(data); // OpenAL has its own copy
+		}
 		
 		if (th.source instanceof SoundSource)
 			AL10.alSourcei(th.source.getOpenALSourceID(), AL10.AL_BUFFER, buf.getOpenALBufferID());
 		else
 			AL10.alSourceQueueBuffers(th.source.getOpenALSourceID(), buf.getOpenALBufferID());
 		
+		BufferRegistry.retain(buf);
 		th.source.pushBuffer(buf);
 
 		// If the source is still missing buffers, we start a new loading
@@ -221,8 +442,16 @@ class CommandThread extends Thread
 		if (th.source.shouldBePlaying() && AL10.alGetSourcei(th.source.getOpenALSourceID(), AL10.AL_SOURCE_STATE) != AL10.AL_PLAYING)
 			AL10.alSourcePlay(th.source.getOpenALSourceID());
 
+		if (th.source instanceof StreamingSource)
+			((StreamingSource)th.source).setUnderrunning(false);
+
 		List<SourceCallBack> l = th.source.getCallBack().getList();
 		for (SourceCallBack sc : l)
 			sc.bufferLoaded(buf);
+
+		if (th.source instanceof SoundSource && ((SoundSource)th.source).getCacheEntry() != null)
+			SoundCache.loaded(((SoundSource)th.source).getCacheEntry(), buf);
+
+		MemoryBudget.enforce();
 	}
 }
@@ -0,0 +1,166 @@
+package audio;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import util.Logger;
+
+/**
+ * Runs the {@link Loading}s of all sources
+ * By default, uses a fixed pool of daemon threads sized to the number of cores,
+ * whose waiting loadings are sorted by urgency (see {@link Loading#compareTo(Loading)})
+ * Another executor can be given with {@link AudioSystem#setDecoderExecutor(ExecutorService)}
+ */
+class DecoderPool
+{
+	private static ExecutorService executor;
+	private static boolean ownExecutor;
+	private static int threadNumber = Runtime.getRuntime().availableProcessors();
+
+	private static final AtomicInteger waiting = new AtomicInteger();
+	private static final AtomicLong decodeTime = new AtomicLong(),
+									decodeNumber = new AtomicLong();
+
+	private DecoderPool(){}
+
+	private static synchronized ExecutorService getExecutor()
+	{
+		if (executor == null)
+		{
+			AtomicInteger count = new AtomicInteger();
+			ThreadFactory factory = r -> {
+				Thread t = new Thread(r, "AudioDecoder-"+count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			};
+			executor = new ThreadPoolExecutor(threadNumber, threadNumber, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(11, (a, b) -> ((Loading)a).compareTo((Loading)b)), factory);
+			ownExecutor = true;
+		}
+		return executor;
+	}
+
+	/**
+	 * Sets the executor running the loadings
+	 * The loadings are sorted by urgency only if its queue does it
+	 * If e is null, the default pool is used again
+	 * The previous executor is shut down if it was created by the system
+	 */
+	static synchronized void setExecutor(ExecutorService e)
+	{
+		shutdown();
+		executor = e;
+		ownExecutor = false;
+	}
+
+	/**
+	 * Sets the number of threads of the default pool
+	 * The current default pool is replaced
+	 */
+	static synchronized void setThreadNumber(int number)
+	{
+		threadNumber = number;
+		if (ownExecutor)
+			shutdown();
+	}
+
+	/**
+	 * Uses a new virtual thread for each loading
+	 * @return false if virtual threads aren't available on this JVM (before Java 21)
+	 */
+	static synchronized boolean useVirtualThreads()
+	{
+		try
+		{
+			ExecutorService e = (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			setExecutor(e);
+			ownExecutor = true;
+			return true;
+		}
+		catch (ReflectiveOperationException e)
+		{
+			Logger.warning("Virtual threads aren't available");
+			return false;
+		}
+	}
+
+	/**
+	 * Shuts the executor down if it was created by the system
+	 * Running loadings are finished, but their buffers won't be used
+	 */
+	static synchronized void shutdown()
+	{
+		if (ownExecutor && executor != null)
+			executor.shutdown();
+		executor = null;
+		ownExecutor = false;
+	}
+
+	static void submit(Loading loading)
+	{
+		waiting.incrementAndGet();
+		getExecutor().execute(loading);
+	}
+
+	/**
+	 * Cancels the loading, removing it from the queue if it hasn't started yet
+	 * @return true if the loading is running and will close its codec
+	 */
+	static boolean cancel(Loading loading)
+	{
+		boolean running = loading.cancel();
+		ExecutorService e;
+		synchronized (DecoderPool.class)
+		{
+			e = executor;
+		}
+		if (!running && e instanceof ThreadPoolExecutor && ((ThreadPoolExecutor)e).remove(loading))
+			waiting.decrementAndGet();
+		return running;
+	}
+
+	/**
+	 * Called by a loading when it starts
+	 * @return the date of the start, to give to {@link #decodeEnded(long)}
+	 */
+	static long decodeStarted()
+	{
+		waiting.decrementAndGet();
+		return System.nanoTime();
+	}
+
+	static void decodeEnded(long start)
+	{
+		decodeTime.addAndGet(System.nanoTime() - start);
+		decodeNumber.incrementAndGet();
+	}
+
+	/**
+	 * @return the number of loadings waiting for a thread
+	 */
+	static int getQueueDepth()
+	{
+		return waiting.get();
+	}
+
+	/**
+	 * @return the total time spent decoding, in nanoseconds
+	 */
+	static long getDecodeTime()
+	{
+		return decodeTime.get();
+	}
+
+	/**
+	 * @return the number of loadings done
+	 */
+	static long getDecodeNumber()
+	{
+		return decodeNumber.get();
+	}
+}
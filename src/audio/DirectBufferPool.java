@@ -0,0 +1,120 @@
+package audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the direct buffers used to give datas to OpenAL, so they are reused
+ * instead of waiting for the GC to free their native memory
+ * Buffers are sorted in size classes (powers of two from 4 KB to 16 MB),
+ * bigger buffers aren't pooled
+ */
+class DirectBufferPool
+{
+	private static final int MIN_CLASS = 12, MAX_CLASS = 24;
+
+	@SuppressWarnings("unchecked")
+	private static final ArrayDeque<ByteBuffer>[] free = new ArrayDeque[MAX_CLASS - MIN_CLASS + 1];
+	static
+	{
+		for (int i=0;i<free.length;i++)
+			free[i] = new ArrayDeque<>();
+	}
+
+	private static long residentBytes = 0, maxResidentBytes = 64L << 20;
+	private static final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+	private DirectBufferPool(){}
+
+	private static int sizeClass(int size)
+	{
+		int c = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+		return Math.max(c, MIN_CLASS);
+	}
+
+	/**
+	 * @return a direct buffer in native order, whose limit is size
+	 * It should be given back with {@link #release(ByteBuffer)} once OpenAL has copied it
+	 */
+	static ByteBuffer borrow(int size)
+	{
+		int c = sizeClass(size);
+		ByteBuffer buf = null;
+		if (c <= MAX_CLASS)
+			synchronized (DirectBufferPool.class)
+			{
+				buf = free[c - MIN_CLASS].pollFirst();
+				if (buf != null)
+					residentBytes -= buf.capacity();
+			}
+
+		if (buf == null)
+		{
+			misses.incrementAndGet();
+			buf = ByteBuffer.allocateDirect(c <= MAX_CLASS ? 1 << c : size).order(ByteOrder.nativeOrder());
+		}
+		else
+			hits.incrementAndGet();
+
+		buf.clear();
+		buf.limit(size);
+		return buf;
+	}
+
+	/**
+	 * Gives a buffer back to the pool
+	 * It is dropped if the pool is full or if it doesn't fit a size class
+	 * Read-only buffers (like mapped files) are never pooled
+	 */
+	static void release(ByteBuffer buf)
+	{
+		int c = sizeClass(buf.capacity());
+		if (!buf.isDirect() || buf.isReadOnly() || c > MAX_CLASS || buf.capacity() != 1 << c)
+			return;
+
+		synchronized (DirectBufferPool.class)
+		{
+			if (residentBytes + buf.capacity() > maxResidentBytes)
+				return;
+			free[c - MIN_CLASS].addFirst(buf);
+			residentBytes += buf.capacity();
+		}
+	}
+
+	/**
+	 * Sets the maximum number of bytes kept by the pool while not used
+	 * Buffers above it are freed
+	 */
+	static synchronized void setMaxResidentBytes(long bytes)
+	{
+		maxResidentBytes = bytes;
+		trim(bytes);
+	}
+
+	/**
+	 * Frees the biggest unused buffers until the pool keeps at most bytes, without changing its maximum
+	 */
+	static synchronized void trim(long bytes)
+	{
+		for (int i=free.length - 1;i>=0 && residentBytes > bytes;i--)
+			while (residentBytes > bytes && !free[i].isEmpty())
+				residentBytes -= free[i].pollFirst().capacity();
+	}
+
+	static synchronized long getResidentBytes()
+	{
+		return residentBytes;
+	}
+
+	static long getHits()
+	{
+		return hits.get();
+	}
+
+	static long getMisses()
+	{
+		return misses.get();
+	}
+}
@@ -0,0 +1,383 @@
+package audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+import util.InputStreamSource;
+import util.Logger;
+import util.MappedFileStreamSource;
+
+/**
+ * Keeps the decoded datas of compressed streams in a directory, so they are decoded only once
+ * Files are named by the hash of the compressed content, and are wav files of the decoded datas :
+ * later loads are read by {@link CodecWav} through a {@link MappedFileStreamSource}
+ * Only streams with a key which can be read several times are cached (see {@link InputStreamSource#isRepeatable()})
+ * When the directory is above its size, the least recently used files are deleted
+ */
+class DiskCache
+{
+	private static final String EXTENSION = ".wav";
+	private static final int HEADER_SIZE = 44;
+
+	private static volatile File directory;
+	private static long maxSize, size;
+	/**
+	 * Hash of the content of each stream key, computed once, outside of the lock of the cache
+	 */
+	private static final ConcurrentHashMap<Object, String> hashes = new ConcurrentHashMap<>();
+	private static final HashMap<String, MappedFileStreamSource> mapped = new HashMap<>();
+
+	private DiskCache(){}
+
+	/**
+	 * Uses dir to cache decoded datas, or nothing if dir is null
+	 */
+	static synchronized void setDirectory(File dir, long max)
+	{
+		directory = dir;
+		maxSize = max;
+		mapped.clear();
+		size = 0;
+		if (dir == null)
+			return;
+
+		if (!dir.isDirectory() && !dir.mkdirs())
+		{
+			Logger.warning("Can't create the cache directory "+dir);
+			directory = null;
+			return;
+		}
+		for (File f : listFiles())
+			size += f.length();
+		evict();
+	}
+
+	static synchronized long getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Called by the loadings, as the first call for a stream reads all of it
+	 * @return the cached datas of the stream, or null if they aren't cached
+	 */
+	static Codec open(InputStreamSource source, Class<? extends Codec> codecClass)
+	{
+		String hash = getHash(source, codecClass);
+		if (hash == null)
+			return null;
+
+		MappedFileStreamSource m;
+		synchronized (DiskCache.class)
+		{
+			if (directory == null)
+				return null;
+			File f = new File(directory, hash + EXTENSION);
+			if (!f.isFile())
+				return null;
+
+			f.setLastModified(System.currentTimeMillis()); // Most recently used
+			m = mapped.get(hash);
+			if (m == null)
+				mapped.put(hash, m = new MappedFileStreamSource(f));
+		}
+		InputStream is = m.getStreamBack();
+		return is == null ? null : new CodecWav(is);
+	}
+
+	/**
+	 * @return a codec writing the datas decoded by codec in the cache, or codec if the stream can't be cached
+	 */
+	static Codec record(InputStreamSource source, Codec codec)
+	{
+		String hash = getHash(source, codec.getClass());
+		if (hash == null)
+			return codec;
+
+		try
+		{
+			synchronized (DiskCache.class)
+			{
+				if (directory == null)
+					return codec;
+				return new Recorder(codec, hash);
+			}
+		}
+		catch (IOException e)
+		{
+			Logger.warning(e);
+			return codec;
+		}
+	}
+
+	/**
+	 * Wav files are already decoded, so they aren't cached
+	 * Not synchronized : two loadings of the same new stream may both hash it, giving the same result
+	 * @return the hash of the content, or null if the stream can't be cached
+	 */
+	private static String getHash(InputStreamSource source, Class<? extends Codec> codecClass)
+	{
+		Object key;
+		if (directory == null || codecClass == CodecWav.class || !source.isRepeatable() || (key = source.getCacheKey()) == null)
+			return null;
+
+		String hash = hashes.get(key);
+		if (hash != null)
+			return hash;
+
+		try (InputStream is = source.getStreamBack())
+		{
+			if (is == null)
+				return null;
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] b = new byte[65536];
+			int cnt;
+			while ((cnt = is.read(b)) > 0)
+				digest.update(b, 0, cnt);
+
+			StringBuilder sb = new StringBuilder();
+			for (byte d : digest.digest())
+				sb.append(String.format("%02x", d));
+			hashes.put(key, hash = sb.toString());
+			return hash;
+		}
+		catch (IOException | NoSuchAlgorithmException e)
+		{
+			Logger.warning(e);
+			return null;
+		}
+	}
+
+	private static File[] listFiles()
+	{
+		File[] files = directory.listFiles((d, name) -> name.endsWith(EXTENSION));
+		return files == null ? new File[0] : files;
+	}
+
+	/**
+	 * Moves the finished file in the cache
+	 */
+	private static synchronized void add(File temp, String hash)
+	{
+		if (directory == null || !temp.getParentFile().equals(directory))
+		{
+			temp.delete();
+			return;
+		}
+		try
+		{
+			File f = new File(directory, hash + EXTENSION);
+			if (f.isFile())
+				size -= f.length();
+			Files.move(temp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			size += f.length();
+			mapped.remove(hash);
+		}
+		catch (IOException e)
+		{
+			Logger.warning(e);
+			temp.delete();
+		}
+		evict();
+	}
+
+	/**
+	 * Deletes the least recently used files until the directory fits in its size
+	 */
+	private static void evict()
+	{
+		if (size <= maxSize)
+			return;
+
+		File[] files = listFiles();
+		Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+		for (int i=0;i<files.length && size > maxSize;i++)
+		{
+			long length = files[i].length();
+			if (files[i].delete())
+			{
+				size -= length;
+				mapped.remove(files[i].getName().substring(0, files[i].getName().length() - EXTENSION.length()));
+			}
+		}
+	}
+
+	/**
+	 * Gives the datas of a codec, and writes them in a temporary file of the cache
+	 * The file is added to the cache if the stream is read from its start to its end without seeking
+	 */
+	static class Recorder extends Codec
+	{
+		private final Codec codec;
+		private final String hash;
+		private final File temp;
+		private FileChannel out;
+		private long written = 0;
+		private boolean finished = false;
+
+		Recorder(Codec codec, String hash) throws IOException
+		{
+			super(codec.stream);
+			this.codec = codec;
+			this.hash = hash;
+			this.temp = File.createTempFile(hash, ".part", directory);
+			this.out = new RandomAccessFile(this.temp, "rw").getChannel();
+			this.out.position(HEADER_SIZE);
+		}
+
+		private void write(ByteBuffer datas)
+		{
+			if (this.out == null)
+				return;
+			try
+			{
+				while (datas.hasRemaining())
+					this.written += this.out.write(datas);
+				if (this.codec.isStreamOver())
+					this.finish();
+			}
+			catch (IOException e)
+			{
+				Logger.warning(e);
+				this.abort();
+			}
+		}
+
+		private void finish() throws IOException
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.put("RIFF".getBytes()).putInt((int)(this.written + HEADER_SIZE - 8)).put("WAVE".getBytes());
+			// Format 3 for float samples, 1 for integers
+			header.put("fmt ".getBytes()).putInt(16).putShort((short)(this.getBitsPerSample() == 32 ? 3 : 1)).putShort((short)this.getChannelsNumber());
+			header.putInt(this.getSamplerate()).putInt(this.getSamplerate() * this.getSampleSize());
+			header.putShort((short)this.getSampleSize()).putShort((short)this.getBitsPerSample());
+			header.put("data".getBytes()).putInt((int)this.written);
+			header.flip();
+			this.out.write(header, 0);
+			this.out.close();
+			this.out = null;
+			this.finished = true;
+			DiskCache.add(this.temp, this.hash);
+		}
+
+		/**
+		 * The datas won't be complete : the file is dropped
+		 */
+		private void abort()
+		{
+			if (this.out == null)
+				return;
+			try
+			{
+				this.out.close();
+			}
+			catch (IOException e) {Logger.warning(e);}
+			this.out = null;
+			this.temp.delete();
+		}
+
+		@Override
+		void setCancellation(BooleanSupplier cancellation)
+		{
+			super.setCancellation(cancellation);
+			this.codec.setCancellation(cancellation);
+		}
+
+		@Override
+		void fill(ByteBuffer dest) throws IOException
+		{
+			int start = dest.position();
+			this.codec.fill(dest);
+			if (this.isCancelled())
+				this.abort();
+
+			ByteBuffer datas = dest.duplicate();
+			datas.limit(datas.position()).position(start);
+			this.write(datas);
+		}
+
+		@Override
+		AudioBuffer readAll()
+		{
+			AudioBuffer all = this.codec.readAll();
+			if (this.isCancelled())
+				this.abort();
+			else if (all != null)
+				this.write(all.isDirect() ? all.getDirectData() : ByteBuffer.wrap(all.getAudioDatas(), 0, all.getLimit()));
+			return all;
+		}
+
+		@Override
+		boolean canSeek()
+		{
+			return this.codec.canSeek();
+		}
+
+		@Override
+		boolean seek(int sampleOffset)
+		{
+			this.abort();
+			return this.codec.seek(sampleOffset);
+		}
+
+		/**
+		 * Once the file is in the cache, a new codec reading it is better than decoding again
+		 */
+		@Override
+		boolean rewind()
+		{
+			this.abort();
+			return !this.finished && this.codec.rewind();
+		}
+
+		@Override
+		boolean isStreamOver()
+		{
+			return this.codec.isStreamOver();
+		}
+
+		@Override
+		void quit()
+		{
+			this.abort();
+			this.codec.quit();
+		}
+
+		@Override
+		public int getChannelsNumber()
+		{
+			return this.codec.getChannelsNumber();
+		}
+
+		@Override
+		public int getSamplerate()
+		{
+			return this.codec.getSamplerate();
+		}
+
+		@Override
+		public int getBitsPerSample()
+		{
+			return this.codec.getBitsPerSample();
+		}
+
+		@Override
+		public int getTotalSize()
+		{
+			return this.codec.getTotalSize();
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Gives the datas of a codec in mono, the average of its channels
+ * OpenAL only places mono buffers at the position of their source, and they take half the memory of stereo ones
+ * The codec is read by small chunks which are mixed straight into the destination,
+ * so the datas are never stored with all their channels
+ */
+class Downmixer extends Codec
+{
+	private final Codec codec;
+	private final int channels;
+
+	private Downmixer(Codec codec)
+	{
+		super(codec.stream);
+		this.codec = codec;
+		this.channels = codec.getChannelsNumber();
+	}
+
+	/**
+	 * @return codec if it is already mono, or a downmixer of it
+	 */
+	static Codec wrap(Codec codec)
+	{
+		if (codec == null || codec.getChannelsNumber() <= 1)
+			return codec;
+		return new Downmixer(codec);
+	}
+
+	@Override
+	void fill(ByteBuffer dest) throws IOException
+	{
+		ByteBuffer out = dest.duplicate().order(ByteOrder.nativeOrder());
+		int outSize = this.getSampleSize(), inSize = this.codec.getSampleSize();
+		while (out.remaining() >= outSize && !this.codec.isStreamOver() && !this.isCancelled())
+		{
+			int n = Math.min(out.remaining() / outSize, CANCELLATION_CHUNK);
+			ByteBuffer in = ByteBuffer.wrap(this.getScratch(n * inSize), 0, n * inSize).order(ByteOrder.nativeOrder());
+			this.codec.fill(in);
+			if ((n = in.position() / inSize) == 0)
+				break;
+
+			switch (this.getBitsPerSample())
+			{
+				case 8:
+					for (int i=0, p=0;i<n;i++)
+					{
+						int sum = 0;
+						for (int c=0;c<this.channels;c++, p++)
+							sum += in.get(p) & 0xFF;
+						out.put((byte)(sum / this.channels));
+					}
+					break;
+				case 16:
+					for (int i=0, p=0;i<n;i++)
+					{
+						int sum = 0;
+						for (int c=0;c<this.channels;c++, p+=2)
+							sum += in.getShort(p);
+						out.putShort((short)(sum / this.channels));
+					}
+					break;
+				default:
+					for (int i=0, p=0;i<n;i++)
+					{
+						float sum = 0;
+						for (int c=0;c<this.channels;c++, p+=4)
+							sum += in.getFloat(p);
+						out.putFloat(sum / this.channels);
+					}
+			}
+		}
+		dest.position(out.position());
+	}
+
+	@Override
+	AudioBuffer readAll()
+	{
+		return this.readChunks();
+	}
+
+	@Override
+	void setCancellation(BooleanSupplier cancellation)
+	{
+		super.setCancellation(cancellation);
+		this.codec.setCancellation(cancellation);
+	}
+
+	@Override
+	boolean canSeek()
+	{
+		return this.codec.canSeek();
+	}
+
+	@Override
+	boolean seek(int sampleOffset)
+	{
+		return this.codec.seek(sampleOffset);
+	}
+
+	@Override
+	boolean rewind()
+	{
+		return this.codec.rewind();
+	}
+
+	@Override
+	boolean isStreamOver()
+	{
+		return this.codec.isStreamOver();
+	}
+
+	@Override
+	void quit()
+	{
+		this.codec.quit();
+	}
+
+	@Override
+	public int getChannelsNumber()
+	{
+		return 1;
+	}
+
+	@Override
+	public int getSamplerate()
+	{
+		return this.codec.getSamplerate();
+	}
+
+	@Override
+	public int getBitsPerSample()
+	{
+		return this.codec.getBitsPerSample();
+	}
+
+	@Override
+	public int getTotalSize()
+	{
+		int size = this.codec.getTotalSize();
+		return size < 0 ? -1 : size / this.channels;
+	}
+}
@@ -0,0 +1,324 @@
+package audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import util.Logger;
+
+/**
+ * A task that loads a buffer from a codec Instanciated each time a source
+ * needs to prepare a buffer, and run by the {@link DecoderPool} Used to allow CommandThread to react fast at short
+ * commands Make sure to use only one Loading by source at the same time
+ */
+class Loading implements Runnable, Comparable<Loading>
+{
+	/**
+	 * Used when the source doesn't need the buffer to keep playing
+	 */
+	static final long NOT_URGENT = Long.MAX_VALUE;
+	private static final AtomicLong created = new AtomicLong();
+
+	AutomaticSource source;
+	private AudioBuffer out = null;
+	private int toSkip;
+	private final long starvingDate, order = created.incrementAndGet();
+	private volatile boolean cancelled = false;
+	private boolean running = false, failed = false;
+	/**
+	 * true to open a new codec before decoding
+	 */
+	private final boolean open;
+	private Codec codec;
+	/**
+	 * Pooled buffer decoded into, given back to the pool if it isn't handed to the CommandThread
+	 */
+	private ByteBuffer borrowed;
+
+	/**
+	 * Create a new Loading, it has to be given to the {@link DecoderPool}
+	 *
+	 * @param codec
+	 *            The codec used to read datas : It must not be used by another
+	 *            Loading
+	 * @param bufferSize
+	 *            The size of the buffer to read : 0 to all available
+	 * @param pre
+	 *            Datas already loaded to add to the buffer Only used by streaming
+	 *            sounds
+	 * @param open
+	 *            true to open a new codec for the source before decoding, so the CommandThread never opens them
+	 * @param starvingDate
+	 *            The date (in {@link System#nanoTime()}) when the source will run out of datas,
+	 *            or {@link #NOT_URGENT}. The most urgent loadings are decoded first
+	 */
+	Loading(AutomaticSource source, int tS, boolean open, long starvingDate)
+	{
+		this.source = source;
+		this.toSkip = tS;
+		this.open = open;
+		this.starvingDate = starvingDate;
+	}
+
+	/**
+	 * Loadings whose source starves first come first, then the oldest
+	 */
+	@Override
+	public int compareTo(Loading l)
+	{
+		if (this.starvingDate != l.starvingDate)
+			return this.starvingDate == NOT_URGENT ? 1 : l.starvingDate == NOT_URGENT ? -1 : Long.signum(this.starvingDate - l.starvingDate);
+		return Long.compare(this.order, l.order);
+	}
+
+	/**
+	 * Starts reading datas and filling the buffer
+	 * A cancelled or failed loading tells the CommandThread once it doesn't use the codec anymore
+	 */
+	@Override
+	public void run()
+	{
+		long start = DecoderPool.decodeStarted();
+		synchronized (this)
+		{
+			if (this.cancelled)
+			{
+				DecoderPool.decodeEnded(start);
+				return;
+			}
+			this.running = true;
+		}
+		boolean exited;
+		try
+		{
+			if ((this.open || this.source.getCurrentCodec() == null) && this.toSkip == 0)
+			{
+				this.source.setNewCodec();
+				if (this.source.getCurrentCodec() == null)
+					throw new IOException("Can't open the stream of source "+this.source.getOpenALSourceID());
+			}
+
+			AudioBuffer sb;
+			if (this.source instanceof SoundSource)
+			{
+				Codec codec = this.use(this.source.getCurrentCodec());
+				int size = this.source.getBufferSize() < 0 ? Integer.MAX_VALUE : this.source.getBufferSize();
+				if ((sb = codec.readSlice(size)) == null)
+				{
+					if (this.source.getBufferSize() < 0)
+						sb = codec.readAll();
+					else
+						sb = codec.readChunk(this.source.getBufferSize());
+				}
+			}
+			else if (this.toSkip != 0)
+			{
+				StreamingSource source = (StreamingSource)this.source;
+				source.setNewCodec();
+				if (source.getCurrentCodec() == null)
+					throw new IOException("Can't open the stream of source "+source.getOpenALSourceID());
+				Codec codec = this.use(source.getCurrentCodec());
+				codec.seek(this.toSkip);
+				sb = this.isCancelled() ? null : source.isLooping() ? this.readLooping(source) : this.readDirect(codec, source.getBufferSize());
+			}
+			else
+			{
+				StreamingSource source = (StreamingSource)this.source;
+				if (source.isLooping())
+					sb = this.readLooping(source);
+				else if (source.getCurrentCodec().isStreamOver())
+					sb = new AudioBuffer(new byte[0], 0, source.getCurrentCodec());
+				else
+					sb = this.readDirect(this.use(source.getCurrentCodec()), source.getBufferSize());
+			}
+			if (sb == null) // The codec has already reported the error
+				this.failed = !this.isCancelled();
+			else
+				this.setBuffer(sb);
+		}
+		catch (Exception e)
+		{
+			if (!this.isCancelled())
+			{
+				Logger.error("Error while loading source "+this.source.getOpenALSourceID(), e);
+				this.failed = true;
+			}
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				this.running = false;
+				exited = this.cancelled || this.failed;
+			}
+			if (this.borrowed != null)
+				DirectBufferPool.release(this.borrowed);
+			this.borrowed = null;
+			DecoderPool.decodeEnded(start);
+		}
+		if (exited)
+			CommandThread.getThread().notifyLoadingExited(this);
+	}
+
+	/**
+	 * Streaming buffers are decoded in a pooled direct buffer, given back once processed,
+	 * unless the codec can give them without decoding
+	 */
+	private AudioBuffer readDirect(Codec codec, int chunkSize)
+	{
+		AudioBuffer slice = codec.readSlice(chunkSize);
+		if (slice != null)
+			return slice;
+		codec.setLooping(false);
+		return codec.readChunk(chunkSize, this.borrow(chunkSize * codec.getSampleSize()));
+	}
+
+	/**
+	 * Borrows a buffer from the pool, kept by the loading until it is given to the CommandThread
+	 */
+	private ByteBuffer borrow(int size)
+	{
+		return this.borrowed = DirectBufferPool.borrow(size);
+	}
+
+	/**
+	 * Fills a whole buffer for a looping source : when the stream ends, it goes back to the loop start
+	 * and the decoding continues in the same buffer. The samples where it happened are kept
+	 * in the buffer, so {@link SourceCallBack#looped()} is called when they are played
+	 */
+	private AudioBuffer readLooping(StreamingSource source) throws IOException
+	{
+		Codec codec = this.use(source.getCurrentCodec());
+		int sampleSize = codec.getSampleSize();
+		ByteBuffer dest = this.borrow(source.getBufferSize() * sampleSize);
+		List<Integer> loops = new ArrayList<>(1);
+
+		codec.setLooping(true);
+		if (!codec.isStreamOver())
+			codec.fill(dest);
+		while (dest.hasRemaining() && codec.isStreamOver() && source.isLooping() && !this.isCancelled())
+		{
+			int loopPoint = dest.position() / sampleSize;
+			if ((codec = this.restart(source)) == null)
+				break;
+			codec.setLooping(true);
+			codec.fill(dest);
+			if (dest.position() / sampleSize == loopPoint) // Nothing after the loop start
+				break;
+			loops.add(loopPoint);
+		}
+		dest.flip();
+
+		AudioBuffer buffer = new AudioBuffer(dest, source.getCurrentCodec());
+		if (!loops.isEmpty())
+		{
+			int[] points = new int[loops.size()];
+			for (int i=0;i<points.length;i++)
+				points[i] = loops.get(i);
+			buffer.setLoopPoints(points);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Goes back to the loop start of the source, rewinding its codec or creating a new one
+	 * @return the codec, or null if the stream can't be read again
+	 */
+	private Codec restart(StreamingSource source)
+	{
+		if (!source.getCurrentCodec().rewind())
+		{
+			source.setNewCodec();
+			if (source.getCurrentCodec() == null)
+				return null;
+		}
+		Codec codec = this.use(source.getCurrentCodec());
+		if (source.getLoopStart() > 0)
+			codec.seek(source.getLoopStart());
+		return codec;
+	}
+
+	/**
+	 * Gives the cancellation token of this loading to the codec
+	 * @return codec
+	 */
+	private Codec use(Codec codec)
+	{
+		this.codec = codec;
+		codec.setCancellation(this::isCancelled);
+		return codec;
+	}
+
+	boolean isCancelled()
+	{
+		return this.cancelled;
+	}
+	boolean hasFailed()
+	{
+		return this.failed;
+	}
+	/**
+	 * @return the codec used by the loading, or null if it hasn't used any
+	 */
+	Codec getCodec()
+	{
+		return this.codec;
+	}
+
+	/**
+	 * Cancels the loading : the codec stops decoding at the end of its current chunk,
+	 * and the CommandThread closes it once the loading has exited
+	 * @return true if the loading is running, false if it hasn't started
+	 * or is over, and so the codec of the source is still usable
+	 */
+	synchronized boolean cancel()
+	{
+		this.cancelled = true;
+		return this.running;
+	}
+
+	/**
+	 * Synchronized to be sure this doesn't interfere with {@link #getOutBuffer()}
+	 * or {@link #isLoadingOver()}
+	 *
+	 * @param buffer
+	 *            The loaded buffer
+	 */
+	private synchronized void setBuffer(AudioBuffer buffer)
+	{
+		if (this.cancelled) // The pooled buffer is given back by run()
+			return;
+		this.out = buffer;
+		this.borrowed = null;
+		CommandThread.getThread().notifyLoadingOver();
+	}
+
+	/**
+	 * Synchronized to be sure this doesn't interfere with
+	 * {@link #setBuffer(AudioBuffer)}
+	 *
+	 * @return The loaded buffer
+	 */
+	synchronized AudioBuffer getOutBuffer()
+	{
+		return this.out;
+	}
+
+	/**
+	 * Synchronized to be sure this doesn't interfere with
+	 * {@link #setBuffer(AudioBuffer)}
+	 *
+	 * @return True if the buffer is loaded
+	 */
+	synchronized boolean isLoadingOver()
+	{
+		return this.out != null;
+	}
+
+	synchronized int getToSkip()
+	{
+		return this.toSkip;
+	}
+}
@@ -0,0 +1,63 @@
+package audio;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Limits the memory used by the datas of all sources (see {@link AudioSystem#setMemoryBudget(long)})
+ * Only used by the CommandThread, except for {@link #getUsage()}
+ */
+class MemoryBudget
+{
+	private static long budget = Long.MAX_VALUE;
+
+	private MemoryBudget(){}
+
+	static void setBudget(long bytes)
+	{
+		budget = bytes;
+	}
+
+	/**
+	 * @return the memory of the buffers in use and of the pool of upload buffers
+	 */
+	static long getUsage()
+	{
+		return BufferRegistry.getMemory() + DirectBufferPool.getResidentBytes();
+	}
+
+	/**
+	 * Frees memory until the budget is respected, or nothing more can be freed :
+	 * the unused buffers of the pool first, as they are the cheapest to get back,
+	 * then the unused datas of the cache, then the datas of stopped sounds, least recently played first
+	 */
+	static void enforce()
+	{
+		if (getUsage() <= budget)
+			return;
+		DirectBufferPool.trim(Math.max(0, budget - BufferRegistry.getMemory()));
+		if (getUsage() <= budget)
+			return;
+		SoundCache.clear();
+		if (getUsage() <= budget)
+			return;
+
+		List<SoundSource> idle = new ArrayList<>();
+		for (Iterator<Source> iter = AudioSystem.getSourcesIterator();iter.hasNext();)
+		{
+			Source s = iter.next();
+			if (s instanceof SoundSource && ((SoundSource)s).canUnload())
+				idle.add((SoundSource)s);
+		}
+		idle.sort((a, b) -> Long.compare(a.getLastPlay(), b.getLastPlay()));
+
+		for (SoundSource s : idle)
+		{
+			s.unload();
+			SoundCache.clear(); // The datas may be only used by the cache now
+			if (getUsage() <= budget)
+				return;
+		}
+	}
+}
@@ -0,0 +1,359 @@
+package audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Converts the datas of a codec to the samplerate of the device, once at decode time,
+ * so OpenAL doesn't resample them at each mix
+ * Polyphase windowed sinc filter : the ratio of the rates is reduced to up / down,
+ * and each output sample uses the phase of the filter matching its position between two input samples
+ * The input samples still needed by the filter are kept between two calls, so the chunks join without gap
+ * When looping, they are also kept across the rewind, so the end of the stream and the loop start join the same way
+ * Sample positions (seek, loop start) are counted at the output rate
+ */
+class Resampler extends Codec
+{
+	/**
+	 * Samples read from the codec at once
+	 */
+	private static final int READ_SAMPLES = 4096;
+	/**
+	 * Above this number of phases, the nearest one is used
+	 */
+	private static final int MAX_PHASES = 512;
+	/**
+	 * Taps, Kaiser beta and part of the passband kept, by quality
+	 */
+	private static final int[] TAPS = {0, 8, 16, 32};
+	private static final double[] BETAS = {0, 5, 7, 9},
+								  ROLLOFFS = {0, 0.85, 0.9, 0.94};
+	/**
+	 * Filters are the same for all the streams with the same rates and quality
+	 */
+	private static final HashMap<List<Integer>, float[]> filters = new HashMap<>();
+
+	private final Codec codec;
+	private final int channels, outRate, up, down, taps, half, phases;
+	private final float[] filter;
+	private final ByteBuffer in;
+	/**
+	 * Interleaved input samples, pos is the one before the next output sample,
+	 * frac / up is the position of the output sample after it
+	 */
+	private float[] frames;
+	private int count, pos, frac;
+	/**
+	 * Index of the end of the input, or -1 if the codec isn't over
+	 */
+	private int end;
+	/**
+	 * true if the codec is rewound once over, so its end isn't padded with silence
+	 */
+	private boolean looping;
+	/**
+	 * true between a rewind and the next fill : a seek then keeps the end of the previous loop as history
+	 */
+	private boolean joined;
+
+	Resampler(Codec codec, int outRate, int quality)
+	{
+		super(codec.stream);
+		this.codec = codec;
+		this.channels = codec.getChannelsNumber();
+		this.outRate = outRate;
+		int gcd = gcd(codec.getSamplerate(), outRate);
+		this.up = outRate / gcd;
+		this.down = codec.getSamplerate() / gcd;
+		this.taps = TAPS[quality];
+		this.half = this.taps / 2;
+		this.phases = Math.min(this.up, MAX_PHASES);
+		this.filter = getFilter(this.phases, this.taps, quality, Math.min(1, (double)this.up / this.down));
+		this.in = ByteBuffer.allocate(READ_SAMPLES * codec.getSampleSize()).order(ByteOrder.nativeOrder());
+		this.frames = new float[(READ_SAMPLES + this.taps) * this.channels];
+		this.reset(0);
+	}
+
+	/**
+	 * @return codec, or a resampler giving its datas at the samplerate of the device
+	 * if {@link AudioSystem#getResampling()} is enabled and the rates differ
+	 */
+	static Codec wrap(Codec codec)
+	{
+		int quality = AudioSystem.getResampling(), rate = AudioSystem.getDeviceSamplerate();
+		if (codec == null || quality == AudioSystem.RESAMPLING_OFF || rate <= 0 || codec.getSamplerate() <= 0 || codec.getSamplerate() == rate)
+			return codec;
+		return new Resampler(codec, rate, quality);
+	}
+
+	private static int gcd(int a, int b)
+	{
+		return b == 0 ? a : gcd(b, a % b);
+	}
+
+	/**
+	 * Windowed sinc, each phase normalized to keep the level
+	 * @param ratio the output rate divided by the input one, if lower than 1 the cutoff is lowered to avoid aliasing
+	 */
+	private static synchronized float[] getFilter(int phases, int taps, int quality, double ratio)
+	{
+		List<Integer> key = Arrays.asList(phases, taps, quality, (int)(ratio * 1_000_000));
+		float[] filter = filters.get(key);
+		if (filter != null)
+			return filter;
+
+		filter = new float[phases * taps];
+		int half = taps / 2;
+		double cutoff = 0.5 * ratio * ROLLOFFS[quality], beta = BETAS[quality];
+		for (int p=0;p<phases;p++)
+		{
+			double sum = 0;
+			for (int k=0;k<taps;k++)
+			{
+				double d = k - half + 1 - (double)p / phases, w = d / half;
+				double x = 2 * cutoff * d;
+				double h = (x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x)) * (Math.abs(w) >= 1 ? 0 : bessel(beta * Math.sqrt(1 - w * w)) / bessel(beta));
+				filter[p * taps + k] = (float)h;
+				sum += h;
+			}
+			for (int k=0;k<taps;k++)
+				filter[p * taps + k] /= sum;
+		}
+		filters.put(key, filter);
+		return filter;
+	}
+
+	/**
+	 * Modified Bessel function of order 0, for the Kaiser window
+	 */
+	private static double bessel(double x)
+	{
+		double sum = 1, term = 1;
+		for (int k=1;term > 1e-12 * sum;k++)
+		{
+			term *= (x / (2 * k)) * (x / (2 * k));
+			sum += term;
+		}
+		return sum;
+	}
+
+	/**
+	 * Forgets the input kept, the next output sample is at frac / up after the next input sample
+	 */
+	private void reset(int frac)
+	{
+		Arrays.fill(this.frames, 0);
+		this.count = this.half - 1;
+		this.pos = this.half - 1;
+		this.frac = frac;
+		this.end = -1;
+	}
+
+	/**
+	 * Drops the input samples no more needed, and adds the next ones of the codec
+	 * When the codec is over, adds silence so the last samples can be computed, unless it loops
+	 * @return false if nothing was added : the decoding was cancelled, or the loop waits for its rewind
+	 */
+	private boolean read() throws IOException
+	{
+		int shift = Math.min(this.pos - this.half + 1, this.count);
+		if (shift > 0)
+		{
+			System.arraycopy(this.frames, shift * this.channels, this.frames, 0, (this.count - shift) * this.channels);
+			this.count -= shift;
+			this.pos -= shift;
+		}
+
+		if (this.codec.isStreamOver())
+		{
+			if (this.looping) // The samples after the end come from the loop start
+				return false;
+			this.end = this.count;
+			this.ensureCapacity(this.count + this.half);
+			Arrays.fill(this.frames, this.count * this.channels, (this.count + this.half) * this.channels, 0);
+			this.count += this.half;
+			return true;
+		}
+
+		this.in.clear();
+		this.codec.fill(this.in);
+		this.in.flip();
+		int n = this.in.remaining() / this.codec.getSampleSize() * this.channels;
+		this.ensureCapacity(this.count + n / this.channels);
+		int o = this.count * this.channels;
+		switch (this.codec.getBitsPerSample())
+		{
+			case 8:
+				for (int i=0;i<n;i++)
+					this.frames[o + i] = ((this.in.get(i) & 0xFF) - 128) / 128f;
+				break;
+			case 16:
+				for (int i=0;i<n;i++)
+					this.frames[o + i] = this.in.getShort(i * 2) / 32768f;
+				break;
+			default:
+				for (int i=0;i<n;i++)
+					this.frames[o + i] = this.in.getFloat(i * 4);
+		}
+		this.count += n / this.channels;
+		return n > 0;
+	}
+
+	private void ensureCapacity(int samples)
+	{
+		if (this.frames.length < samples * this.channels)
+			this.frames = Arrays.copyOf(this.frames, samples * this.channels);
+	}
+
+	@Override
+	void fill(ByteBuffer dest) throws IOException
+	{
+		ByteBuffer out = dest.duplicate().order(ByteOrder.nativeOrder());
+		boolean floats = this.getBitsPerSample() == 32;
+		this.joined = false;
+		while (out.remaining() >= this.getSampleSize() && !this.isCancelled())
+		{
+			if (this.end >= 0 && this.pos >= this.end)
+				break;
+			if (this.pos + this.half >= this.count)
+			{
+				if (!this.read())
+					break;
+				continue;
+			}
+
+			int phase = this.phases == this.up ? this.frac : (int)((long)this.frac * this.phases / this.up);
+			int f = phase * this.taps, base = (this.pos - this.half + 1) * this.channels;
+			for (int c=0;c<this.channels;c++)
+			{
+				float sum = 0;
+				for (int k=0, i=base + c;k<this.taps;k++, i+=this.channels)
+					sum += this.filter[f + k] * this.frames[i];
+				if (floats)
+					out.putFloat(sum);
+				else
+					out.putShort((short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(sum * 32768f))));
+			}
+
+			this.frac += this.down;
+			this.pos += this.frac / this.up;
+			this.frac %= this.up;
+		}
+		dest.position(out.position());
+	}
+
+	@Override
+	AudioBuffer readAll()
+	{
+		return this.readChunks();
+	}
+
+	@Override
+	void setCancellation(BooleanSupplier cancellation)
+	{
+		super.setCancellation(cancellation);
+		this.codec.setCancellation(cancellation);
+	}
+
+	@Override
+	boolean canSeek()
+	{
+		return this.codec.canSeek();
+	}
+
+	/**
+	 * The codec is moved to the input sample before the offset, less the samples the filter needs before it,
+	 * which are decoded again as its history
+	 * Right after a rewind, the loop start follows the samples kept from the end instead
+	 */
+	@Override
+	boolean seek(int sampleOffset)
+	{
+		if (!this.codec.canSeek())
+			return super.seek(sampleOffset);
+
+		long position = (long)sampleOffset * this.down;
+		int target = (int)(position / this.up);
+		if (this.joined)
+			return this.codec.seek(target);
+
+		int history = Math.min(target, this.half - 1);
+		this.reset((int)(position % this.up));
+		this.count -= history;
+		return this.codec.seek(target - history);
+	}
+
+	/**
+	 * The input samples not used yet are kept, the start of the stream is read after them
+	 * If the end has already been padded with silence, only the samples of the stream are kept
+	 */
+	@Override
+	boolean rewind()
+	{
+		if (!this.codec.rewind())
+			return false;
+		if (this.end >= 0)
+		{
+			this.count = this.end;
+			this.end = -1;
+		}
+		this.joined = true;
+		return true;
+	}
+
+	@Override
+	void setLooping(boolean looping)
+	{
+		this.looping = looping;
+	}
+
+	/**
+	 * When looping, the stream is over once the next samples need the loop start
+	 */
+	@Override
+	boolean isStreamOver()
+	{
+		if (this.end >= 0)
+			return this.pos >= this.end;
+		return this.looping && this.pos + this.half >= this.count && this.codec.isStreamOver();
+	}
+
+	@Override
+	void quit()
+	{
+		this.codec.quit();
+	}
+
+	@Override
+	public int getChannelsNumber()
+	{
+		return this.channels;
+	}
+
+	@Override
+	public int getSamplerate()
+	{
+		return this.outRate;
+	}
+
+	/**
+	 * 8 bits samples are given as 16 bits, the precision gained by filtering would be lost
+	 */
+	@Override
+	public int getBitsPerSample()
+	{
+		return this.codec.getBitsPerSample() == 8 ? 16 : this.codec.getBitsPerSample();
+	}
+
+	@Override
+	public int getTotalSize()
+	{
+		int size = this.codec.getTotalSize();
+		return size < 0 ? -1 : (int)((long)size * this.up / this.down);
+	}
+}
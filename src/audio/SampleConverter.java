@@ -0,0 +1,250 @@
+package audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Converts little endian samples of 8 (unsigned), 16, 24 or 32 bits, or 32 bits floats,
+ * into 16 bits or float samples in the native order, as OpenAL wants them
+ * Also interleaves the planar floats synthesized by the decoders
+ * Each channel of a sample is converted independently
+ * The loops work on whole buffers with absolute indexes, so the JIT can unroll and vectorize them
+ * With dither, a triangular noise of one output step is added before the precision is reduced
+ */
+public class SampleConverter
+{
+	private final int inBits, inBytes, outBytes;
+	private final boolean inFloat, outFloat, dither;
+	private int random = 0x2545F491;
+	private short[] shorts;
+
+	/**
+	 * @param inBits 8, 16, 24 or 32
+	 * @param inFloat true if the input is made of floats, inBits must be 32
+	 * @param outFloat true to write floats, false to write 16 bits integers
+	 * @param dither true to add a triangular noise when the precision is reduced
+	 */
+	public SampleConverter(int inBits, boolean inFloat, boolean outFloat, boolean dither)
+	{
+		if ((inBits != 8 && inBits != 16 && inBits != 24 && inBits != 32) || (inFloat && inBits != 32))
+			throw new IllegalArgumentException("Unsupported sample format : "+inBits+" bits"+(inFloat ? " float" : ""));
+		this.inBits = inBits;
+		this.inBytes = inBits / 8;
+		this.inFloat = inFloat;
+		this.outFloat = outFloat;
+		this.outBytes = outFloat ? 4 : 2;
+		this.dither = dither;
+	}
+
+	/**
+	 * @return the size in bytes of a channel of an input sample
+	 */
+	public int getInputBytes()
+	{
+		return this.inBytes;
+	}
+	/**
+	 * @return 16, or 32 if the output is made of floats
+	 */
+	public int getOutputBits()
+	{
+		return this.outBytes * 8;
+	}
+
+	/**
+	 * Converts as many channels as possible from src into dest
+	 * Both positions are moved after the converted datas
+	 * @return the number of channels converted
+	 */
+	public int convert(ByteBuffer src, ByteBuffer dest)
+	{
+		int n = Math.min(src.remaining() / this.inBytes, dest.remaining() / this.outBytes);
+		ByteBuffer in = src.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		in.limit(in.position() + n * this.inBytes);
+		ByteBuffer out = dest.duplicate().order(ByteOrder.nativeOrder());
+		out.limit(out.position() + n * this.outBytes);
+
+		if (this.outFloat)
+			this.toFloat(in.slice().order(ByteOrder.LITTLE_ENDIAN), out.slice().order(ByteOrder.nativeOrder()).asFloatBuffer(), n);
+		else
+			this.toShort(in.slice().order(ByteOrder.LITTLE_ENDIAN), out.slice().order(ByteOrder.nativeOrder()).asShortBuffer(), n);
+
+		src.position(src.position() + n * this.inBytes);
+		dest.position(dest.position() + n * this.outBytes);
+		return n;
+	}
+
+	/**
+	 * Interleaves planar float samples, as decoders synthesize them (1 at full scale), into dest
+	 * The input format of the converter isn't used
+	 * @param channels the samples of each channel
+	 * @param offsets the index of the first sample to convert in each channel
+	 * @param count the number of samples available from the offsets
+	 * @return the number of samples converted, less than count if dest is too small
+	 */
+	public int interleave(float[][] channels, int[] offsets, int count, ByteBuffer dest)
+	{
+		int c = channels.length, n = Math.min(count, dest.remaining() / (this.outBytes * c));
+		ByteBuffer out = dest.duplicate().order(ByteOrder.nativeOrder());
+		out.limit(out.position() + n * c * this.outBytes);
+
+		if (this.outFloat)
+		{
+			FloatBuffer f = out.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+			for (int ch=0;ch<c;ch++)
+			{
+				float[] samples = channels[ch];
+				for (int i=0, o=offsets[ch];i<n;i++)
+					f.put(i * c + ch, samples[o + i]);
+			}
+		}
+		else
+		{
+			ShortBuffer s = out.slice().order(ByteOrder.nativeOrder()).asShortBuffer();
+			for (int ch=0;ch<c;ch++)
+			{
+				float[] samples = channels[ch];
+				for (int i=0, o=offsets[ch];i<n;i++)
+				{
+					float v = samples[o + i] * 32767f;
+					if (this.dither)
+						v += this.noise(8) / 256f;
+					s.put(i * c + ch, (short)clamp(Math.round(v), Short.MIN_VALUE, Short.MAX_VALUE));
+				}
+			}
+		}
+
+		dest.position(dest.position() + n * c * this.outBytes);
+		return n;
+	}
+
+	private void toShort(ByteBuffer in, ShortBuffer out, int n)
+	{
+		switch (this.inBits)
+		{
+			case 8:
+				for (int i=0;i<n;i++)
+					out.put(i, (short)(((in.get(i) & 0xFF) - 128) << 8));
+				break;
+			case 16:
+				out.put(in.asShortBuffer());
+				break;
+			case 24:
+				if (in.hasArray())
+				{
+					byte[] a = in.array();
+					short[] s = this.getShorts(n);
+					if (this.dither)
+						for (int i=0, p=in.arrayOffset();i<n;i++, p+=3)
+							s[i] = (short)clamp((((a[p] & 0xFF) | (a[p + 1] & 0xFF) << 8 | a[p + 2] << 16) + this.noise(8) + 128) >> 8, Short.MIN_VALUE, Short.MAX_VALUE);
+					else // The least significant byte is dropped
+						for (int i=0, p=in.arrayOffset() + 1;i<n;i++, p+=3)
+							s[i] = (short)((a[p] & 0xFF) | a[p + 1] << 8);
+					out.put(s, 0, n);
+				}
+				else
+					for (int i=0;i<n;i++)
+					{
+						int p = i * 3;
+						int v = (in.get(p) & 0xFF) | (in.get(p + 1) & 0xFF) << 8 | in.get(p + 2) << 16;
+						out.put(i, (short)(this.dither ? clamp((v + this.noise(8) + 128) >> 8, Short.MIN_VALUE, Short.MAX_VALUE) : v >> 8));
+					}
+				break;
+			default:
+				if (this.inFloat)
+				{
+					FloatBuffer f = in.asFloatBuffer();
+					for (int i=0;i<n;i++)
+					{
+						float v = f.get(i) * 32767f;
+						if (this.dither)
+							v += this.noise(8) / 256f;
+						out.put(i, (short)clamp(Math.round(v), Short.MIN_VALUE, Short.MAX_VALUE));
+					}
+				}
+				else
+				{
+					IntBuffer ints = in.asIntBuffer();
+					for (int i=0;i<n;i++)
+					{
+						int v = ints.get(i);
+						if (this.dither)
+							v = clamp((int)(((long)v + this.noise(16) + 32768) >> 16), Short.MIN_VALUE, Short.MAX_VALUE);
+						else
+							v >>= 16;
+						out.put(i, (short)v);
+					}
+				}
+		}
+	}
+
+	private void toFloat(ByteBuffer in, FloatBuffer out, int n)
+	{
+		switch (this.inBits)
+		{
+			case 8:
+				for (int i=0;i<n;i++)
+					out.put(i, ((in.get(i) & 0xFF) - 128) / 128f);
+				break;
+			case 16:
+				ShortBuffer s = in.asShortBuffer();
+				for (int i=0;i<n;i++)
+					out.put(i, s.get(i) / 32768f);
+				break;
+			case 24:
+				for (int i=0;i<n;i++)
+				{
+					int p = i * 3;
+					out.put(i, ((in.get(p) & 0xFF) | (in.get(p + 1) & 0xFF) << 8 | in.get(p + 2) << 16) / 8388608f);
+				}
+				break;
+			default:
+				if (this.inFloat)
+					out.put(in.asFloatBuffer());
+				else
+				{
+					IntBuffer ints = in.asIntBuffer();
+					for (int i=0;i<n;i++)
+						out.put(i, ints.get(i) / 2147483648f);
+				}
+		}
+	}
+
+	/**
+	 * @return an array of at least size shorts, reused by the next calls
+	 */
+	private short[] getShorts(int size)
+	{
+		if (this.shorts == null || this.shorts.length < size)
+			this.shorts = new short[size];
+		return this.shorts;
+	}
+
+	/**
+	 * @return a triangular noise between -2^bits and 2^bits
+	 */
+	private int noise(int bits)
+	{
+		return (this.next() >>> (32 - bits)) - (this.next() >>> (32 - bits));
+	}
+
+	/**
+	 * Xorshift generator, cheap enough to be called for each channel
+	 */
+	private int next()
+	{
+		int x = this.random;
+		x ^= x << 13;
+		x ^= x >>> 17;
+		x ^= x << 5;
+		return this.random = x;
+	}
+
+	private static int clamp(int v, int min, int max)
+	{
+		return v < min ? min : v > max ? max : v;
+	}
+}
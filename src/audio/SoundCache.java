@@ -0,0 +1,208 @@
+package audio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import util.InputStreamSource;
+
+/**
+ * Shares the decoded datas and the OpenAL buffer of sound sources loaded from the same stream
+ * (see {@link InputStreamSource#getCacheKey()})
+ * Each entry is a user of its buffer in the {@link BufferRegistry}
+ * Entries are counted by the sources using them, and the unused ones are deleted,
+ * least recently used first, when the cache is above its size
+ * Only used by the CommandThread
+ */
+class SoundCache
+{
+	static class Entry
+	{
+		private final Object key;
+		/**
+		 * null while the first source is loading
+		 */
+		private AudioBuffer buffer = null;
+		private SoundSource loader;
+		private final List<SoundSource> waiting = new ArrayList<>();
+		private int users = 1;
+
+		Entry(Object key, SoundSource loader)
+		{
+			this.key = key;
+			this.loader = loader;
+		}
+
+		AudioBuffer getBuffer()
+		{
+			return this.buffer;
+		}
+	}
+
+	private static final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private static long maxSize = 32L << 20;
+	/**
+	 * Also read by other threads
+	 */
+	private static volatile long size = 0, hits = 0, misses = 0;
+
+	private SoundCache(){}
+
+	/**
+	 * @return the key of the datas a sound source would load, or null if they can't be shared
+	 */
+	static Object getKey(InputStreamSource streamSource, int bufferSize, Class<? extends Codec> codec, boolean mono)
+	{
+		Object key = streamSource.getCacheKey();
+		return key == null ? null : Arrays.asList(key, bufferSize, codec, mono);
+	}
+
+	/**
+	 * Creates a sound source, and gives it its datas with {@link #load(SoundSource)}
+	 */
+	static SoundSource newSoundSource(int sourceID, InputStreamSource streamSource, int bufferSize, Class<? extends Codec> codec, boolean mono)
+	{
+		SoundSource source = new SoundSource(sourceID, streamSource, bufferSize, codec, mono);
+		load(source);
+		return source;
+	}
+
+	/**
+	 * Gives its datas to a source without any, sharing the datas of the cache if possible
+	 * The source starts loading only if nobody loads the same datas
+	 */
+	static void load(SoundSource source)
+	{
+		source.setUnloaded(false);
+		Object key = getKey(source.getSource(), source.getBufferSize(), source.getRequestedCodecClass(), source.isMono());
+		Entry entry = key == null ? null : entries.get(key);
+		if (entry == null)
+		{
+			CommandThread.getThread().addLoading(source, 0, true); // Opens the codec
+			if (key != null)
+			{
+				misses ++;
+				entries.put(key, entry = new Entry(key, source));
+				source.setCacheEntry(entry);
+			}
+			return;
+		}
+
+		hits ++;
+		source.setCacheEntry(entry);
+		entry.users ++;
+		if (entry.buffer != null)
+			source.useSharedBuffer(entry.buffer);
+		else
+		{ // Gets the datas once the loader is done
+			source.setCodecDatas(entry.loader);
+			source.setLoading(true);
+			entry.waiting.add(source);
+		}
+	}
+
+	/**
+	 * Called when the datas of the loader of the entry are uploaded
+	 * They are given to all the sources waiting for them
+	 */
+	static void loaded(Entry entry, AudioBuffer buffer)
+	{
+		entry.buffer = buffer;
+		entry.loader = null;
+		BufferRegistry.retain(buffer);
+		size += buffer.getLimit();
+		for (SoundSource s : entry.waiting)
+			s.useSharedBuffer(buffer);
+		entry.waiting.clear();
+		evict();
+	}
+
+	/**
+	 * Called when a source using the entry is deleted
+	 * The OpenAL buffer is kept until the entry is evicted
+	 */
+	static void release(Entry entry, SoundSource source)
+	{
+		entry.users --;
+		if (entry.buffer == null)
+		{
+			entry.waiting.remove(source);
+			if (entry.loader == source)
+			{ // Another source has to load the datas
+				entry.loader = entry.waiting.isEmpty() ? null : entry.waiting.remove(0);
+				if (entry.loader == null)
+					entries.remove(entry.key);
+				else
+				{
+					entry.loader.setLoading(false);
+					CommandThread.getThread().addLoading(entry.loader, 0, true);
+				}
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * Called when the loading of the loader of the entry has failed
+	 * The loader leaves the entry, and the next waiting source loads the datas in its place,
+	 * so a failed loading doesn't block the other sources of the stream
+	 */
+	static void failed(Entry entry, SoundSource loader)
+	{
+		if (entry.loader != loader)
+			return;
+		loader.setCacheEntry(null);
+		release(entry, loader);
+	}
+
+	/**
+	 * Deletes the unused entries, least recently used first, until the cache fits in its size
+	 */
+	private static void evict()
+	{
+		for (Iterator<Entry> iter = entries.values().iterator();iter.hasNext() && size > maxSize;)
+		{
+			Entry e = iter.next();
+			if (e.users == 0 && e.buffer != null)
+			{
+				BufferRegistry.release(e.buffer.getOpenALBufferID());
+				size -= e.buffer.getLimit();
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Deletes all the unused entries
+	 */
+	static void clear()
+	{
+		long max = maxSize;
+		maxSize = -1;
+		evict();
+		maxSize = max;
+	}
+
+	static void setMaxSize(long bytes)
+	{
+		maxSize = bytes;
+		evict();
+	}
+
+	static long getSize()
+	{
+		return size;
+	}
+
+	static long getHits()
+	{
+		return hits;
+	}
+
+	static long getMisses()
+	{
+		return misses;
+	}
+}
@@ -7,10 +7,16 @@ import util.InputStreamSource;
 public class SoundSource extends AutomaticSource<SoundSource>
 {
 	private AudioBuffer audioBuffer = null;
+	private SoundCache.Entry cacheEntry = null;
+	private boolean unloaded = false;
+	private long lastPlay = System.nanoTime();
+	/**
+	 * The datas are given by {@link SoundCache#load(SoundSource)}
+	 */
 	SoundSource(int sourceID, InputStreamSource streamSource,
-			int bufferSize, Class<? extends Codec> codec)
+			int bufferSize, Class<? extends Codec> codec, boolean mono)
 	{
-		super(sourceID, streamSource, bufferSize, codec);
+		super(sourceID, streamSource, bufferSize, codec, mono, false);
 	}
 
 	@Override
@@ -37,9 +43,103 @@ public class SoundSource extends AutomaticSource<SoundSource>
 		this.audioBuffer = buffer;
 	}
 
+	/**
+	 * Plays datas already uploaded by another source
+	 */
+	void useSharedBuffer(AudioBuffer buffer)
+	{
+		this.setCodecDatas(buffer.getCodec());
+		AL10.alSourcei(this.getOpenALSourceID(), AL10.AL_BUFFER, buffer.getOpenALBufferID());
+		BufferRegistry.retain(buffer);
+		this.pushBuffer(buffer);
+		this.setLoading(false);
+
+		if (this.shouldBePlaying())
+			AL10.alSourcePlay(this.getOpenALSourceID());
+
+		for (SourceCallBack sc : this.getCallBack().getList())
+			sc.bufferLoaded(buffer);
+	}
+
+	/**
+	 * Drops the datas of the source, to free memory
+	 * They are loaded again by the next play
+	 */
+	void unload()
+	{
+		AL10.alSourceStop(this.getOpenALSourceID());
+		Command.CommandDeleteSource.deleteBuffersFromSource(this);
+		if (this.cacheEntry != null)
+			SoundCache.release(this.cacheEntry, this);
+		this.cacheEntry = null;
+		this.audioBuffer = null;
+		this.closeCodec();
+		this.setShouldBePlaying(false);
+		this.unloaded = true;
+	}
+	/**
+	 * @return true if the datas have been dropped by {@link #unload()}
+	 */
+	boolean isUnloaded()
+	{
+		return this.unloaded;
+	}
+	void setUnloaded(boolean unloaded)
+	{
+		this.unloaded = unloaded;
+	}
+	/**
+	 * @return true if the datas can be dropped : the source is stopped and they can be loaded again
+	 */
+	boolean canUnload()
+	{
+		int state = AL10.alGetSourcei(this.getOpenALSourceID(), AL10.AL_SOURCE_STATE);
+		return !this.unloaded && !this.isSourceLoading() && this.audioBuffer != null
+				&& state != AL10.AL_PLAYING && state != AL10.AL_PAUSED && this.getSource().isRepeatable();
+	}
+	/**
+	 * Called when the source is given a position
+	 * If {@link AudioSystem#isAutoDownmix()}, a sound with several channels is reloaded in mono,
+	 * now if it is stopped, or at its next play
+	 */
+	void positioned()
+	{
+		if (!AudioSystem.isAutoDownmix() || this.isMono() || this.getNumberOfChannel() == 1)
+			return;
+		this.setMono(true);
+		if (this.canUnload())
+			this.unload();
+	}
+	/**
+	 * @return true if the datas have several channels but the source should be mono
+	 */
+	boolean needsDownmix()
+	{
+		return this.isMono() && this.audioBuffer != null && this.audioBuffer.getCodec().getChannelsNumber() > 1;
+	}
+	void played()
+	{
+		this.lastPlay = System.nanoTime();
+	}
+	long getLastPlay()
+	{
+		return this.lastPlay;
+	}
+
+	SoundCache.Entry getCacheEntry()
+	{
+		return this.cacheEntry;
+	}
+	void setCacheEntry(SoundCache.Entry entry)
+	{
+		this.cacheEntry = entry;
+	}
+
 	@Override
 	public AudioBuffer[] getSourceBuffers()
 	{
+		if (this.audioBuffer == null) // Not loaded yet
+			return new AudioBuffer[0];
 		return new AudioBuffer[]{this.audioBuffer};
 	}
 }
@@ -1,5 +1,9 @@
 package audio;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.lwjgl.openal.AL10;
 import org.lwjgl.util.vector.Vector3f;
 
@@ -11,7 +15,20 @@ abstract class Source<T extends Source<T>>
 	private final UpdateList<SourceCallBack> callBacks = new UpdateList<>();
 	private final int sourceId;
 	private boolean shouldBePlaying = false;
-	private float volume = 1.0f;
+	/**
+	 * Shadow copies of the properties set by the user, so they can be read from any thread
+	 * They are updated once their SET command has been queued (or has given its value to a queued one)
+	 * Vectors are never modified once set, a new one is used instead
+	 */
+	private volatile float volume = 1.0f,
+						   pitch = 1.0f,
+						   rollOffFactor = 1.0f,
+						   referenceDistance = 1.0f,
+						   maxDistance = Float.MAX_VALUE;
+	private volatile Vector3f position = new Vector3f(0, 0, 0),
+							  velocity = new Vector3f(0, 0, 0);
+	private volatile boolean relative = false;
+	private final Map<Integer, Command.CoalescableCommand> pendingSets = new ConcurrentHashMap<>();
 	Source(int sourceID)
 	{
 		this.sourceId = sourceID;
@@ -45,10 +62,46 @@ abstract class Source<T extends Source<T>>
 	 */
 	public AudioBuffer[] getBufferData()
     {
-        return Command.executeInThread(new Command.CommandGetBuffer(this)).buf;
+        return this.getBufferDataAsync().join();
+    }
+	/**
+	 * Non-blocking version of {@link #getBufferData()}
+	 */
+	public CompletableFuture<AudioBuffer[]> getBufferDataAsync()
+    {
+        return Command.submitAsync(new Command.CommandGetBuffer(this), c -> c.buf);
     }
 	abstract AudioBuffer[] getSourceBuffers();
 
+	/**
+	 * @return the memory used by the datas of the source, in bytes (see {@link AudioSystem#getMemoryUsage()})
+	 * Datas shared with other sources are counted for each of them
+	 */
+	public long getMemoryUsage()
+	{
+		return this.getMemoryUsageAsync().join();
+	}
+	/**
+	 * Non-blocking version of {@link #getMemoryUsage()}
+	 */
+	public CompletableFuture<Long> getMemoryUsageAsync()
+	{
+		return this.getBufferDataAsync().thenApply(buffers -> {
+			long usage = 0;
+			for (AudioBuffer b : buffers)
+				usage += b.getMemorySize();
+			return usage;
+		});
+	}
+
+	/**
+	 * @return the SET commands of this source still waiting in the queue, by dataType
+	 */
+	Map<Integer, Command.CoalescableCommand> getPendingSets()
+	{
+		return this.pendingSets;
+	}
+
 	float getSourceVolume()
 	{
 		return this.volume;
@@ -57,14 +110,52 @@ abstract class Source<T extends Source<T>>
 	{
 		this.volume = sourceVolume;
 	}
+	void setShadowFloat(int dataType, float value)
+	{
+		if (dataType == AL10.AL_PITCH)
+			this.pitch = value;
+		else if (dataType == AL10.AL_ROLLOFF_FACTOR)
+			this.rollOffFactor = value;
+		else if (dataType == AL10.AL_REFERENCE_DISTANCE)
+			this.referenceDistance = value;
+		else if (dataType == AL10.AL_MAX_DISTANCE)
+			this.maxDistance = value;
+	}
+	void setShadowVector(int dataType, Vector3f value)
+	{
+		if (dataType == AL10.AL_POSITION)
+			this.position = value;
+		else if (dataType == AL10.AL_VELOCITY)
+			this.velocity = value;
+	}
+	void setShadowRelative(boolean value)
+	{
+		this.relative = value;
+	}
+	private static Vector3f copy(Vector3f from, Vector3f to)
+	{
+		to.x = from.x;
+		to.y = from.y;
+		to.z = from.z;
+		return to;
+	}
 
 	/**
+	 * Properties set through this class are read back from a shadow copy,
+	 * without waiting for the system
 	 * @return the volume of the source, between 0 and 1
 	 * This value is a relative volume, and thus is not affected by masterVolume
 	 */
 	public float getVolume()
 	{
-		return Command.executeInThread(new Command.CommandVolume(this)).value;
+		return this.volume;
+	}
+	/**
+	 * Non-blocking version of {@link #getVolume()}
+	 */
+	public CompletableFuture<Float> getVolumeAsync()
+	{
+		return CompletableFuture.completedFuture(this.volume);
 	}
 	/**
 	 * Sets the volume of the source
@@ -73,68 +164,148 @@ abstract class Source<T extends Source<T>>
 	 * Error {@link #ERROR_INVALID_VALUE} if volume isn't between 0 and 1
 	 */
 	public T setVolume(float volume)
+	{
+		this.setVolumeAsync(volume).join();
+		return (T)this;
+	}
+	/**
+	 * Non-blocking version of {@link #setVolume(float)}
+	 * @return a future completed once the volume has been applied
+	 */
+	public CompletableFuture<Void> setVolumeAsync(float volume)
 	{
 		if (volume < 0 || volume > 1)
 		{
 			AudioSystem.setError(AudioSystem.ERROR_INVALID_VALUE);
-			return (T)this;
+			return CompletableFuture.completedFuture(null);
 		}
 
-		Command.executeInThread(new Command.CommandVolume(this, volume));
-		return (T)this;
+		return Command.submitAsync(new Command.CommandVolume(this, volume));
 	}
 	/**
 	 * @return the pitch of the source, between 0.5 and 2
 	 */
 	public float getPitch()
 	{
-		return Command.executeInThread(new Command.CommandFloat(this, AL10.AL_PITCH)).value;
+		return this.pitch;
+	}
+	/**
+	 * Non-blocking version of {@link #getPitch()}
+	 */
+	public CompletableFuture<Float> getPitchAsync()
+	{
+		return CompletableFuture.completedFuture(this.pitch);
 	}
 	/**
 	 * Sets the pitch of the source
 	 * ERROR {@link #ERROR_INVALID_VALUE} if pitch isn't between 0.5 and 2
 	 */
 	public T setPitch(float pitch)
+	{
+		this.setPitchAsync(pitch).join();
+		return (T)this;
+	}
+	/**
+	 * Non-blocking version of {@link #setPitch(float)}
+	 */
+	public CompletableFuture<Void> setPitchAsync(float pitch)
 	{
 		if (pitch < 0.5 || pitch > 2)
 		{
 			AudioSystem.setError(AudioSystem.ERROR_INVALID_VALUE);
-			return (T)this;
+			return CompletableFuture.completedFuture(null);
 		}
 
-		Command.executeInThread(new Command.CommandFloat(this, AL10.AL_PITCH, pitch));
-		return (T)this;
+		return Command.submitAsync(new Command.CommandFloat(this, AL10.AL_PITCH, pitch));
 	}
 
 	public float getRollOffFactor()
 	{
-		return Command.executeInThread(new Command.CommandFloat(this, AL10.AL_ROLLOFF_FACTOR)).value;
+		return this.rollOffFactor;
+	}
+	/**
+	 * Non-blocking version of {@link #getRollOffFactor()}
+	 */
+	public CompletableFuture<Float> getRollOffFactorAsync()
+	{
+		return CompletableFuture.completedFuture(this.rollOffFactor);
 	}
 	public T setRollOffFactor(float rollOffFactor)
 	{
-		Command.executeInThread(new Command.CommandFloat(this, AL10.AL_ROLLOFF_FACTOR, rollOffFactor));
+		this.setRollOffFactorAsync(rollOffFactor).join();
 		return (T)this;
 	}
+	/**
+	 * Non-blocking version of {@link #setRollOffFactor(float)}
+	 */
+	public CompletableFuture<Void> setRollOffFactorAsync(float rollOffFactor)
+	{
+		return Command.submitAsync(new Command.CommandFloat(this, AL10.AL_ROLLOFF_FACTOR, rollOffFactor));
+	}
 
 	public Vector3f getPosition()
 	{
-		return Command.executeInThread(new Command.CommandVector(this, AL10.AL_POSITION)).value;
+		return this.getPosition(new Vector3f());
+	}
+	/**
+	 * Copies the position of the source into dest, without allocating
+	 * @return dest
+	 */
+	public Vector3f getPosition(Vector3f dest)
+	{
+		return copy(this.position, dest);
+	}
+	/**
+	 * Non-blocking version of {@link #getPosition()}
+	 */
+	public CompletableFuture<Vector3f> getPositionAsync()
+	{
+		return CompletableFuture.completedFuture(this.getPosition());
 	}
 	public T setPosition(Vector3f position)
 	{
-		Command.executeInThread(new Command.CommandVector(this, AL10.AL_POSITION, position));
+		this.setPositionAsync(position).join();
 		return (T)this;
 	}
+	/**
+	 * Non-blocking version of {@link #setPosition(Vector3f)}
+	 */
+	public CompletableFuture<Void> setPositionAsync(Vector3f position)
+	{
+		return Command.submitAsync(new Command.CommandVector(this, AL10.AL_POSITION, position));
+	}
 
 	public Vector3f getVelocity()
 	{
-		return Command.executeInThread(new Command.CommandVector(this, AL10.AL_VELOCITY)).value;
+		return this.getVelocity(new Vector3f());
+	}
+	/**
+	 * Copies the velocity of the source into dest, without allocating
+	 * @return dest
+	 */
+	public Vector3f getVelocity(Vector3f dest)
+	{
+		return copy(this.velocity, dest);
+	}
+	/**
+	 * Non-blocking version of {@link #getVelocity()}
+	 */
+	public CompletableFuture<Vector3f> getVelocityAsync()
+	{
+		return CompletableFuture.completedFuture(this.getVelocity());
 	}
 	public T setVelocity(Vector3f velocity)
 	{
-		Command.executeInThread(new Command.CommandVector(this, AL10.AL_VELOCITY, velocity));
+		this.setVelocityAsync(velocity).join();
 		return (T)this;
 	}
+	/**
+	 * Non-blocking version of {@link #setVelocity(Vector3f)}
+	 */
+	public CompletableFuture<Void> setVelocityAsync(Vector3f velocity)
+	{
+		return Command.submitAsync(new Command.CommandVector(this, AL10.AL_VELOCITY, velocity));
+	}
 
 	public void addCallBack(SourceCallBack callBack)
 	{
@@ -144,23 +315,50 @@ abstract class Source<T extends Source<T>>
 
 	public float getSourceReferenceDistance()
 	{
-		return Command.executeInThread(new Command.CommandFloat(this, AL10.AL_REFERENCE_DISTANCE)).value;
+		return this.referenceDistance;
+	}
+	/**
+	 * Non-blocking version of {@link #getSourceReferenceDistance()}
+	 */
+	public CompletableFuture<Float> getSourceReferenceDistanceAsync()
+	{
+		return CompletableFuture.completedFuture(this.referenceDistance);
 	}
 	public T setSourceReferenceDistance(float referenceDistance)
 	{
-		Command.executeInThread(new Command.CommandFloat(this, AL10.AL_REFERENCE_DISTANCE, referenceDistance));
+		this.setSourceReferenceDistanceAsync(referenceDistance).join();
 		return (T)this;
 	}
+	/**
+	 * Non-blocking version of {@link #setSourceReferenceDistance(float)}
+	 */
+	public CompletableFuture<Void> setSourceReferenceDistanceAsync(float referenceDistance)
+	{
+		return Command.submitAsync(new Command.CommandFloat(this, AL10.AL_REFERENCE_DISTANCE, referenceDistance));
+	}
 
 	public float getSourceMaxDistance()
 	{
-		return Command.executeInThread(new Command.CommandFloat(this, AL10.AL_MAX_DISTANCE)).value;
+		return this.maxDistance;
+	}
+	/**
+	 * Non-blocking version of {@link #getSourceMaxDistance()}
+	 */
+	public CompletableFuture<Float> getSourceMaxDistanceAsync()
+	{
+		return CompletableFuture.completedFuture(this.maxDistance);
 	}
 	public T setSourceMaxDistance(float maxDistance)
 	{
-		Command.executeInThread(new Command.CommandFloat(this, AL10.AL_MAX_DISTANCE, maxDistance));
+		this.setSourceMaxDistanceAsync(maxDistance).join();
 		return (T)this;
-
+	}
+	/**
+	 * Non-blocking version of {@link #setSourceMaxDistance(float)}
+	 */
+	public CompletableFuture<Void> setSourceMaxDistanceAsync(float maxDistance)
+	{
+		return Command.submitAsync(new Command.CommandFloat(this, AL10.AL_MAX_DISTANCE, maxDistance));
 	}
 
 	public UpdateList<SourceCallBack> getCallBack()
@@ -170,13 +368,27 @@ abstract class Source<T extends Source<T>>
 	
 	public boolean isRelativeToListener()
 	{
-		return Command.executeInThread(new Command.CommandRelative(this)).value;
+		return this.relative;
+	}
+	/**
+	 * Non-blocking version of {@link #isRelativeToListener()}
+	 */
+	public CompletableFuture<Boolean> isRelativeToListenerAsync()
+	{
+		return CompletableFuture.completedFuture(this.relative);
 	}
 	public T setRelativeToListener(boolean relative)
 	{
-		Command.executeInThread(new Command.CommandRelative(this, relative));
+		this.setRelativeToListenerAsync(relative).join();
 		return (T)this;
 	}
+	/**
+	 * Non-blocking version of {@link #setRelativeToListener(boolean)}
+	 */
+	public CompletableFuture<Void> setRelativeToListenerAsync(boolean relative)
+	{
+		return Command.submitAsync(new Command.CommandRelative(this, relative));
+	}
 
 	/**
 	 * Plays the source
@@ -185,7 +397,14 @@ abstract class Source<T extends Source<T>>
 	 */
 	public void play()
 	{
-		Command.executeInThread(new Command.CommandPlay(this));
+		this.playAsync().join();
+	}
+	/**
+	 * Non-blocking version of {@link #play()}
+	 */
+	public CompletableFuture<Void> playAsync()
+	{
+		return Command.submitAsync(new Command.CommandPlay(this));
 	}
 	/**
 	 * Pauses the source
@@ -195,7 +414,14 @@ abstract class Source<T extends Source<T>>
 	 */
 	public void pause()
 	{
-		Command.executeInThread(new Command.CommandPause(this));
+		this.pauseAsync().join();
+	}
+	/**
+	 * Non-blocking version of {@link #pause()}
+	 */
+	public CompletableFuture<Void> pauseAsync()
+	{
+		return Command.submitAsync(new Command.CommandPause(this));
 	}
 	/**
 	 * Stops the source
@@ -205,19 +431,40 @@ abstract class Source<T extends Source<T>>
 	 */
 	public void stop()
 	{
-		Command.executeInThread(new Command.CommandStop(this));
+		this.stopAsync().join();
+	}
+	/**
+	 * Non-blocking version of {@link #stop()}
+	 */
+	public CompletableFuture<Void> stopAsync()
+	{
+		return Command.submitAsync(new Command.CommandStop(this));
 	}
 	/**
 	 * @return true if the source is currently playing, false if the source is loading or stopped
 	 */
 	public boolean playing()
 	{
-		return Command.executeInThread(new Command.CommandPlaying(this)).playing;
+		return this.playingAsync().join();
+	}
+	/**
+	 * Non-blocking version of {@link #playing()}
+	 */
+	public CompletableFuture<Boolean> playingAsync()
+	{
+		return Command.submitAsync(new Command.CommandPlaying(this), c -> c.playing);
 	}
 
 	public void delete()
 	{
-		Command.executeInThread(new Command.CommandDeleteSource(this));
+		this.deleteAsync().join();
+	}
+	/**
+	 * Non-blocking version of {@link #delete()}
+	 */
+	public CompletableFuture<Void> deleteAsync()
+	{
+		return Command.submitAsync(new Command.CommandDeleteSource(this));
 	}
 	
 	/**
@@ -226,13 +473,21 @@ abstract class Source<T extends Source<T>>
 	 */
 	public int getOffset()
 	{
-		return Command.executeInThread(new Command.CommandOffset(this)).value;
+		return this.getOffsetAsync().join();
+	}
+	/**
+	 * Non-blocking version of {@link #getOffset()}
+	 */
+	public CompletableFuture<Integer> getOffsetAsync()
+	{
+		return Command.submitAsync(new Command.CommandOffset(this), c -> c.value);
 	}
 	
     /**
 	 * Sets the offset of the source in samples
-	 * This method needs to start a new loading and read all datas
-	 * up to the offset set. During this loading, datas to continue
+	 * This method needs to start a new loading that reaches the offset set,
+	 * by jumping to it if the codec can seek (WAV, MP3) or by reading all datas
+	 * up to it otherwise. During this loading, datas to continue
 	 * reading from the current point will still be loaded
 	 * Once a buffer from the wanted position is loaded,
 	 * all other datas are discarded and the source restarts playing if it was
@@ -241,8 +496,15 @@ abstract class Source<T extends Source<T>>
 	 */
 	public T setOffset(int value)
 	{
-		Command.executeInThread(new Command.CommandOffset(this, value));
+		this.setOffsetAsync(value).join();
 		return (T)this;
 	}
+	/**
+	 * Non-blocking version of {@link #setOffset(int)}
+	 */
+	public CompletableFuture<Void> setOffsetAsync(int value)
+	{
+		return Command.submitAsync(new Command.CommandOffset(this, value));
+	}
 }
 
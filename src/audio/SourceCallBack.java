@@ -27,6 +27,9 @@ public abstract class SourceCallBack
 
 	public abstract void startsLoading(int skipping);
 
+	/**
+	 * The datas of the buffer of a streaming source can't be read after this call
+	 */
 	public abstract void bufferProcessed(AudioBuffer buffer);
 
 	public abstract void looped();
@@ -6,16 +6,75 @@ import util.InputStreamSource;
 
 public class StreamingSource extends AutomaticSource<StreamingSource>
 {
-	private boolean looping;
+	private volatile boolean looping;
+	private volatile int loopStart = 0;
 	private int bufferNumber;
 	private final LinkedList<AudioBuffer> bufferDatas = new LinkedList<>();
 	private int bufferProcessed;
+	private boolean underrunning;
+	private volatile int underrunNumber;
+	/**
+	 * Resident sources only decode while they play, see {@link AudioSystem#newResidentSource(InputStreamSource, boolean)}
+	 */
+	private final boolean resident;
+	private boolean unloaded;
 
 	StreamingSource(int sourceID, InputStreamSource streamSource,
-			int bufferSize, int bufferNumber, Class<? extends Codec> codec)
+			int bufferSize, int bufferNumber, Class<? extends Codec> codec, boolean mono)
+	{
+		this(sourceID, streamSource, bufferSize, bufferNumber, codec, mono, false);
+	}
+	/**
+	 * A resident source doesn't open its codec until it plays, its format is unknown until then,
+	 * so its creation doesn't wait for it
+	 */
+	StreamingSource(int sourceID, InputStreamSource streamSource,
+			int bufferSize, int bufferNumber, Class<? extends Codec> codec, boolean mono, boolean resident)
 	{
-		super(sourceID, streamSource, bufferSize, codec);
+		super(sourceID, streamSource, bufferSize, codec, mono, !resident);
 		this.bufferNumber = bufferNumber;
+		this.resident = resident;
+		this.unloaded = resident;
+		if (resident)
+			this.setOpened();
+	}
+
+	/**
+	 * @return true if the source decodes its datas only while it plays
+	 */
+	public boolean isResident()
+	{
+		return this.resident;
+	}
+	boolean isUnloaded()
+	{
+		return this.unloaded;
+	}
+	/**
+	 * A resident source keeps its datas encoded, the decoded copy of the DiskCache would defeat it
+	 */
+	@Override
+	boolean usesDiskCache()
+	{
+		return !this.resident;
+	}
+	/**
+	 * Starts a loading which opens the codec and decodes from toSkip
+	 */
+	void load(int toSkip)
+	{
+		this.unloaded = false;
+		CommandThread.getThread().addLoading(this, toSkip, true);
+	}
+	/**
+	 * Drops the buffers and the codec of a resident source which has played to its end
+	 * They are created again by the next play
+	 */
+	void unload()
+	{
+		Command.CommandDeleteSource.deleteBuffersFromSource(this);
+		this.closeCodec();
+		this.unloaded = true;
 	}
 
 	@Override
@@ -30,6 +89,24 @@ public class StreamingSource extends AutomaticSource<StreamingSource>
 		return this.looping;
 	}
 
+	/**
+	 * Sets the sample the source goes back to when it loops, 0 by default
+	 * Error {@link AudioSystem#ERROR_INVALID_VALUE} if sample is negative
+	 */
+	public void setLoopStart(int sample)
+	{
+		if (sample < 0)
+		{
+			AudioSystem.setError(AudioSystem.ERROR_INVALID_VALUE);
+			return;
+		}
+		this.loopStart = sample;
+	}
+	public int getLoopStart()
+	{
+		return this.loopStart;
+	}
+
 	AudioBuffer removeBufferData()
 	{
 		this.bufferProcessed ++;
@@ -50,12 +127,30 @@ public class StreamingSource extends AutomaticSource<StreamingSource>
 		return this.getSource().canStreamBeRetrieved();
 	}
 
+	/**
+	 * Forgets all the buffers, once they have been unqueued from OpenAL
+	 */
+	void clearBuffers()
+	{
+		for (AudioBuffer b : this.bufferDatas)
+			b.release();
+		this.bufferDatas.clear();
+	}
+
 	@Override
 	void pushBuffer(AudioBuffer buffer)
 	{
 		this.bufferDatas.addLast(buffer);
 	}
 
+	/**
+	 * @return the first queued buffer, or null
+	 */
+	AudioBuffer getPlayingBuffer()
+	{
+		return this.bufferDatas.peekFirst();
+	}
+
 	@Override
 	public AudioBuffer[] getSourceBuffers()
 	{
@@ -66,4 +161,26 @@ public class StreamingSource extends AutomaticSource<StreamingSource>
 	{
 		return this.bufferProcessed;
 	}
+
+	boolean isUnderrunning()
+	{
+		return this.underrunning;
+	}
+	/**
+	 * Each time the source starts underrunning, the underrun number is increased
+	 */
+	void setUnderrunning(boolean underrun)
+	{
+		if (underrun && !this.underrunning)
+			this.underrunNumber ++;
+		this.underrunning = underrun;
+	}
+
+	/**
+	 * @return how many times the source stopped because it ran out of datas while it should have been playing
+	 */
+	public int getUnderrunNumber()
+	{
+		return this.underrunNumber;
+	}
 }
@@ -0,0 +1,119 @@
+package test;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import util.UpdateList;
+
+/**
+ * Compares the submission path of commands with several producer threads :
+ * - the old one, a global monitor in front of an UpdateList drained with getList()
+ * - the new one, a lock-free queue drained with poll()
+ * A single consumer plays the role of the CommandThread
+ */
+public class CommandQueueBenchmark
+{
+	private static final int COMMANDS_PER_PRODUCER = 200000,
+							 WARMUP_RUNS = 3,
+							 RUNS = 5;
+
+	private interface Path
+	{
+		void submit(Integer command);
+		int drain();
+	}
+
+	private static class OldPath implements Path
+	{
+		private final UpdateList<Integer> list = new UpdateList<>();
+		@Override
+		public void submit(Integer command)
+		{
+			synchronized (OldPath.class)
+			{
+				this.list.add(command);
+			}
+		}
+		@Override
+		public int drain()
+		{
+			int drained = 0;
+			if (this.list.getList().size() > 0)
+				for (Iterator<Integer> iter = this.list.getList().iterator();iter.hasNext();)
+				{
+					iter.next();
+					iter.remove();
+					drained ++;
+				}
+			return drained;
+		}
+	}
+
+	private static class NewPath implements Path
+	{
+		private final ConcurrentLinkedQueue<Integer> queue = new ConcurrentLinkedQueue<>();
+		@Override
+		public void submit(Integer command)
+		{
+			this.queue.offer(command);
+		}
+		@Override
+		public int drain()
+		{
+			int drained = 0;
+			while (this.queue.poll() != null)
+				drained ++;
+			return drained;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		for (int producers : new int[]{1, 4, 16})
+		{
+			for (int i=0;i<WARMUP_RUNS;i++)
+			{
+				run(new OldPath(), producers);
+				run(new NewPath(), producers);
+			}
+
+			long oldTime = 0, newTime = 0;
+			for (int i=0;i<RUNS;i++)
+			{
+				oldTime += run(new OldPath(), producers);
+				newTime += run(new NewPath(), producers);
+			}
+
+			long total = (long)producers * COMMANDS_PER_PRODUCER * RUNS;
+			System.out.printf("%2d producers : old %8.1f ns/command, new %8.1f ns/command%n",
+					producers, (double)oldTime / total, (double)newTime / total);
+		}
+	}
+
+	/**
+	 * @return the time in nanoseconds needed to submit and drain all commands
+	 */
+	private static long run(Path path, int producers) throws InterruptedException
+	{
+		CountDownLatch start = new CountDownLatch(1), done = new CountDownLatch(producers);
+		Integer command = Integer.valueOf(0);
+
+		for (int p=0;p<producers;p++)
+			new Thread(() -> {
+				try {start.await();}
+				catch (InterruptedException e) {return;}
+				for (int i=0;i<COMMANDS_PER_PRODUCER;i++)
+					path.submit(command);
+				done.countDown();
+			}).start();
+
+		long expected = (long)producers * COMMANDS_PER_PRODUCER, drained = 0;
+		long begin = System.nanoTime();
+		start.countDown();
+		while (drained < expected)
+			drained += path.drain();
+		done.await();
+		return System.nanoTime() - begin;
+	}
+}
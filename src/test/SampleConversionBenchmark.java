@@ -0,0 +1,75 @@
+package test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import audio.SampleConverter;
+
+/**
+ * Compares the conversion of 24 and 32 bits samples to 16 bits :
+ * - the old loop of CodecWav, putting the 2 most significant bytes of each channel one by one
+ * - the SampleConverter, with and without dither
+ * Both read from a heap array and write in a direct buffer, like the decoding of a streaming buffer
+ */
+public class SampleConversionBenchmark
+{
+	private static final int CHANNELS = 1 << 20,
+							 WARMUP_RUNS = 20,
+							 RUNS = 50;
+
+	private interface Conversion
+	{
+		void convert(byte[] src, ByteBuffer dest);
+	}
+
+	private static Conversion oldLoop(int bits)
+	{
+		int bytePerChannel = bits / 8;
+		return (raw, dest) -> {
+			dest.clear();
+			for (int j=0;j + bytePerChannel <= raw.length;j+=bytePerChannel)
+				dest.put(raw[j + bytePerChannel - 2]).put(raw[j + bytePerChannel - 1]);
+		};
+	}
+
+	private static Conversion converter(int bits, boolean dither)
+	{
+		SampleConverter converter = new SampleConverter(bits, false, false, dither);
+		return (raw, dest) -> {
+			dest.clear();
+			converter.convert(ByteBuffer.wrap(raw), dest);
+		};
+	}
+
+	public static void main(String[] args)
+	{
+		Random random = new Random(0);
+		ByteBuffer dest = ByteBuffer.allocateDirect(CHANNELS * 2).order(ByteOrder.nativeOrder());
+		for (int bits : new int[]{24, 32})
+		{
+			byte[] src = new byte[CHANNELS * bits / 8];
+			random.nextBytes(src);
+
+			double old = measure(oldLoop(bits), src, dest),
+				   plain = measure(converter(bits, false), src, dest),
+				   dithered = measure(converter(bits, true), src, dest);
+			System.out.printf("%d bits : old %6.3f ns/channel, converter %6.3f ns/channel, with dither %6.3f ns/channel%n",
+					bits, old, plain, dithered);
+		}
+	}
+
+	/**
+	 * @return the time in nanoseconds needed to convert one channel
+	 */
+	private static double measure(Conversion conversion, byte[] src, ByteBuffer dest)
+	{
+		for (int i=0;i<WARMUP_RUNS;i++)
+			conversion.convert(src, dest);
+
+		long begin = System.nanoTime();
+		for (int i=0;i<RUNS;i++)
+			conversion.convert(src, dest);
+		return (double)(System.nanoTime() - begin) / RUNS / CHANNELS;
+	}
+}
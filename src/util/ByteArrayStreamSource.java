@@ -0,0 +1,108 @@
+package util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Keeps the bytes of a stream in memory, as they are read (so still encoded for OGG or MP3)
+ * Each call to {@link #getStreamBack()} gives a new stream over the same array
+ */
+public class ByteArrayStreamSource implements InputStreamSource
+{
+	private final byte[] datas;
+	private final Object cacheKey;
+
+	public ByteArrayStreamSource(byte[] datas)
+	{
+		this(datas, null);
+	}
+	/**
+	 * @param key identifies the content of the array, see {@link #getCacheKey()}
+	 */
+	public ByteArrayStreamSource(byte[] datas, Object key)
+	{
+		this.datas = datas;
+		this.cacheKey = key;
+	}
+
+	/**
+	 * Reads the whole stream of source, keeping its key
+	 * @return null if the stream can't be read
+	 */
+	public static ByteArrayStreamSource read(InputStreamSource source)
+	{
+		try (InputStream is = source.getStreamBack())
+		{
+			if (is == null)
+				return null;
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(is.available(), 8192));
+			byte[] b = new byte[8192];
+			int cnt;
+			while ((cnt = is.read(b)) > 0)
+				out.write(b, 0, cnt);
+			return new ByteArrayStreamSource(out.toByteArray(), source.getCacheKey());
+		}
+		catch (IOException e)
+		{
+			Logger.error(e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return the size of the array, in bytes
+	 */
+	public int getSize()
+	{
+		return this.datas.length;
+	}
+
+	@Override
+	public boolean canStreamBeRetrieved()
+	{
+		return true;
+	}
+
+	@Override
+	public boolean isRepeatable()
+	{
+		return true;
+	}
+
+	@Override
+	public Object getCacheKey()
+	{
+		return this.cacheKey;
+	}
+
+	@Override
+	public InputStream getStreamBack()
+	{
+		return new ArrayStream(this.datas);
+	}
+
+	/**
+	 * Reads the array, codecs can go back to their start through {@link SeekableStream}
+	 */
+	private static class ArrayStream extends ByteArrayInputStream implements SeekableStream
+	{
+		ArrayStream(byte[] datas)
+		{
+			super(datas);
+		}
+
+		@Override
+		public long getPosition()
+		{
+			return this.pos;
+		}
+
+		@Override
+		public synchronized void setPosition(long position)
+		{
+			this.pos = (int)Math.max(0, Math.min(position, this.count));
+		}
+	}
+}
@@ -3,6 +3,7 @@ package util;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
 public class FileInputStreamSource implements InputStreamSource
@@ -22,14 +23,60 @@ public class FileInputStreamSource implements InputStreamSource
 		return this.file.exists();
 	}
 
+	@Override
+	public boolean isRepeatable()
+	{
+		return true;
+	}
+
+	/**
+	 * The file and its last modification date, so a modified file is read again
+	 */
+	@Override
+	public Object getCacheKey()
+	{
+		return this.file.getAbsolutePath() + '@' + this.file.lastModified();
+	}
+
 	@Override
 	public InputStream getStreamBack()
 	{
 		try
 		{
-			return new BufferedInputStream(new FileInputStream(this.file));
+			return new FileStream(new FileInputStream(this.file));
 		}
 		catch(Exception e){Logger.error("Can't create stream : "+this.file.toString());Logger.error(e);}
 		return null;
 	}
+
+	/**
+	 * A buffered stream of a file, whose position can be moved through the channel of the file
+	 */
+	public static class FileStream extends BufferedInputStream implements SeekableStream
+	{
+		private final FileInputStream file;
+
+		FileStream(FileInputStream file)
+		{
+			super(file);
+			this.file = file;
+		}
+
+		@Override
+		public synchronized long getPosition() throws IOException
+		{
+			return this.file.getChannel().position() - (this.count - this.pos);
+		}
+
+		/**
+		 * The buffered datas are dropped
+		 */
+		@Override
+		public synchronized void setPosition(long position) throws IOException
+		{
+			this.file.getChannel().position(position);
+			this.count = this.pos = 0;
+			this.markpos = -1;
+		}
+	}
 }
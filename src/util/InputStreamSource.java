@@ -6,4 +6,21 @@ public interface InputStreamSource
 {
 	public boolean canStreamBeRetrieved();
 	public InputStream getStreamBack();
+	/**
+	 * Identifies the content of the stream : sound sources whose streams have equal keys
+	 * share their decoded datas
+	 * @return null if the content can't be identified (default)
+	 */
+	public default Object getCacheKey()
+	{
+		return null;
+	}
+	/**
+	 * @return true if {@link #getStreamBack()} can be called several times and always gives the same content
+	 * false by default
+	 */
+	public default boolean isRepeatable()
+	{
+		return false;
+	}
 }
@@ -0,0 +1,129 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Maps a file in memory once, and reads it without copy through {@link MappedInputStream}s
+ * Codecs which know this stream (like the wav one) can give slices of the mapping to OpenAL
+ * Files bigger than 2 GB can't be mapped
+ */
+public class MappedFileStreamSource implements InputStreamSource
+{
+	private final File file;
+	private MappedByteBuffer mapping;
+
+	public MappedFileStreamSource(String s)
+	{
+		this(new File(s));
+	}
+	public MappedFileStreamSource(File f)
+	{
+		this.file = f;
+	}
+
+	@Override
+	public boolean canStreamBeRetrieved()
+	{
+		return this.file.exists();
+	}
+
+	@Override
+	public boolean isRepeatable()
+	{
+		return true;
+	}
+
+	@Override
+	public Object getCacheKey()
+	{
+		return this.file.getAbsolutePath() + '@' + this.file.lastModified();
+	}
+
+	/**
+	 * Maps the file at the first call
+	 * @return a new stream over the mapping, or null if the file can't be mapped
+	 */
+	@Override
+	public synchronized InputStream getStreamBack()
+	{
+		if (this.mapping == null)
+			try (RandomAccessFile raf = new RandomAccessFile(this.file, "r"))
+			{
+				this.mapping = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			}
+			catch(IOException | IllegalArgumentException e){Logger.error("Can't map file : "+this.file.toString());Logger.error(e);return null;}
+
+		return new MappedInputStream(this.mapping.duplicate());
+	}
+
+	/**
+	 * Reads a mapped file, moving the position of its buffer
+	 */
+	public static class MappedInputStream extends InputStream implements SeekableStream
+	{
+		private final ByteBuffer buffer;
+
+		MappedInputStream(ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		/**
+		 * @return the read-only mapping, whose position is the one of the stream
+		 */
+		public ByteBuffer getBuffer()
+		{
+			return this.buffer;
+		}
+
+		@Override
+		public int read()
+		{
+			return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len)
+		{
+			if (len == 0)
+				return 0;
+			if (!this.buffer.hasRemaining())
+				return -1;
+			len = Math.min(len, this.buffer.remaining());
+			this.buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public long skip(long n)
+		{
+			int skipped = (int)Math.max(0, Math.min(n, this.buffer.remaining()));
+			this.buffer.position(this.buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public long getPosition()
+		{
+			return this.buffer.position();
+		}
+
+		@Override
+		public void setPosition(long position)
+		{
+			this.buffer.position((int)Math.min(position, this.buffer.limit()));
+		}
+
+		@Override
+		public int available()
+		{
+			return this.buffer.remaining();
+		}
+	}
+}
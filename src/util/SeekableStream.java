@@ -0,0 +1,16 @@
+package util;
+
+import java.io.IOException;
+
+/**
+ * A stream which can move its reading position, like a file
+ * Codecs use it to go back to the start of their datas without opening a new stream
+ */
+public interface SeekableStream
+{
+	/**
+	 * @return the position of the next byte read, from the start of the stream
+	 */
+	public long getPosition() throws IOException;
+	public void setPosition(long position) throws IOException;
+}
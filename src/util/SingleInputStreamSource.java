@@ -6,9 +6,24 @@ public class SingleInputStreamSource implements InputStreamSource
 {
 	private boolean used = false;
 	private InputStream stream;
+	private final Object cacheKey;
 	public SingleInputStreamSource(InputStream is)
+	{
+		this(is, null);
+	}
+	/**
+	 * @param key identifies the content of the stream, see {@link #getCacheKey()}
+	 */
+	public SingleInputStreamSource(InputStream is, Object key)
 	{
 		this.stream = is;
+		this.cacheKey = key;
+	}
+
+	@Override
+	public Object getCacheKey()
+	{
+		return this.cacheKey;
 	}
 
 	@Override
@@ -0,0 +1,39 @@
+package audio;
+
+/**
+ * Counts the users of buffers : each buffer is counted once in the memory, whatever its number of users
+ * The last release deletes the OpenAL buffer, it needs a device so it isn't done here
+ */
+public class BufferRegistryTest
+{
+	private static AudioBuffer buffer(int id, int size)
+	{
+		AudioBuffer b = new AudioBuffer(new byte[size], size, null);
+		b.setOpenALBufferID(id);
+		return b;
+	}
+
+	public static void main(String[] args)
+	{
+		long memory = BufferRegistry.getMemory();
+		int number = BufferRegistry.getBufferNumber();
+
+		AudioBuffer first = buffer(1001, 1000), shared = buffer(1001, 1000), other = buffer(1002, 300);
+		BufferRegistry.retain(first);
+		BufferRegistry.retain(shared);
+		BufferRegistry.retain(other);
+		Check.equal(2, BufferRegistry.getUse(1001), "users of the shared buffer");
+		Check.equal(1, BufferRegistry.getUse(1002), "users of the other buffer");
+		Check.equal(number + 2, BufferRegistry.getBufferNumber(), "buffers in use");
+		Check.equal(memory + first.getMemorySize() + other.getMemorySize(), BufferRegistry.getMemory(), "memory of the buffers");
+
+		Check.that(!BufferRegistry.release(1001), "shared buffer deleted while still used");
+		Check.equal(1, BufferRegistry.getUse(1001), "users once released");
+		Check.equal(memory + first.getMemorySize() + other.getMemorySize(), BufferRegistry.getMemory(), "memory once released");
+
+		Check.that(!BufferRegistry.release(1003), "unknown buffer deleted");
+		Check.that(!BufferRegistry.release(0), "buffer 0 deleted");
+		Check.equal(0, BufferRegistry.getUse(1003), "users of an unknown buffer");
+		System.out.println("BufferRegistryTest OK");
+	}
+}
@@ -0,0 +1,109 @@
+package audio;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cancels decodings : codecs stop between two chunks, wrappers give the token to the codec they read,
+ * and a loading cancelled before it runs leaves the pool queue without using its source
+ */
+public class CancellationTest
+{
+	private static final int LENGTH = 1 << 20;
+
+	/**
+	 * A sine which can only be read forward
+	 */
+	static class ForwardCodec extends SineCodec
+	{
+		ForwardCodec(int length)
+		{
+			super(44100, 2, 16, length, 440);
+		}
+		@Override
+		boolean canSeek()
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * The decoding of a long stream stops once the token is set, after a few chunks
+	 */
+	private static void testCodec()
+	{
+		SineCodec sine = new SineCodec(44100, 2, 16, LENGTH, 440);
+		Codec mono = Downmixer.wrap(sine);
+		AtomicInteger checks = new AtomicInteger();
+		mono.setCancellation(() -> checks.incrementAndGet() > 3);
+		AudioBuffer read = mono.readAll();
+		Check.that(sine.isCancelled(), "token given to the wrapped codec");
+		Check.that(read.getLimit() < LENGTH, "datas read once cancelled : "+read.getLimit()); // Half of the stream
+		Check.that(!mono.isStreamOver(), "stream over once cancelled");
+	}
+
+	/**
+	 * A codec which can't jump decodes up to the offset, and gives up once cancelled
+	 */
+	private static void testSeek()
+	{
+		Codec resampled = new Resampler(new ForwardCodec(LENGTH), 48000, AudioSystem.RESAMPLING_FAST);
+		resampled.setCancellation(() -> true);
+		Check.that(!resampled.seek(LENGTH / 2), "seek of a cancelled codec");
+		Check.that(!resampled.isStreamOver(), "stream decoded up to the end");
+
+		Codec forward = new ForwardCodec(LENGTH);
+		Check.that(forward.seek(1000) && !forward.isStreamOver(), "seek of a codec reading forward");
+	}
+
+	/**
+	 * A loading waiting for a thread is removed from the queue of the pool, and never runs
+	 */
+	private static void testQueued() throws InterruptedException
+	{
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+		CountDownLatch blocked = new CountDownLatch(1), started = new CountDownLatch(1);
+		executor.execute(() -> {
+			started.countDown();
+			try
+			{
+				blocked.await();
+			}
+			catch (InterruptedException e) {}
+		});
+		started.await();
+		DecoderPool.setExecutor(executor);
+		try
+		{
+			int depth = DecoderPool.getQueueDepth();
+			Loading loading = new Loading(null, 0, false, Loading.NOT_URGENT); // Would fail if it ran
+			DecoderPool.submit(loading);
+			Check.equal(depth + 1, DecoderPool.getQueueDepth(), "loadings waiting");
+			Check.that(!DecoderPool.cancel(loading), "loading running before its thread is free");
+			Check.equal(depth, DecoderPool.getQueueDepth(), "loadings waiting once cancelled");
+			Check.that(executor.getQueue().isEmpty(), "cancelled loading still queued");
+		}
+		finally
+		{
+			blocked.countDown();
+			executor.shutdown();
+			DecoderPool.setExecutor(null);
+		}
+
+		Loading late = new Loading(null, 0, false, Loading.NOT_URGENT);
+		Check.that(!late.cancel(), "loading running before its start");
+		late.run(); // Only ends, the source is never used
+		Check.that(late.isCancelled() && !late.isLoadingOver() && late.getCodec() == null, "cancelled loading run");
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		testCodec();
+		testSeek();
+		testQueued();
+		System.out.println("CancellationTest OK");
+	}
+}
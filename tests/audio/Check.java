@@ -0,0 +1,32 @@
+package audio;
+
+/**
+ * Assertions of the tests, which are run by their main method
+ */
+class Check
+{
+	private Check(){}
+
+	static void that(boolean condition, String message)
+	{
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	static void equal(long expected, long actual, String message)
+	{
+		if (expected != actual)
+			throw new AssertionError(message+" : expected "+expected+" but was "+actual);
+	}
+
+	/**
+	 * Checks the arrays have the same length and their values differ by at most tolerance
+	 */
+	static void close(float[] expected, float[] actual, double tolerance, String message)
+	{
+		equal(expected.length, actual.length, message+", length");
+		for (int i=0;i<expected.length;i++)
+			if (Math.abs(expected[i] - actual[i]) > tolerance)
+				throw new AssertionError(message+" : at "+i+" expected "+expected[i]+" but was "+actual[i]);
+	}
+}
@@ -0,0 +1,67 @@
+package audio;
+
+import org.lwjgl.openal.AL10;
+
+/**
+ * Queues property commands of a source, without running the CommandThread :
+ * a SET gives its value to the pending one of its property, until that one is taken
+ * or another command of the source is queued after it
+ */
+public class CoalescingTest
+{
+	private static Command.CommandVolume volume(Source<?> source, float value)
+	{
+		Command.CommandVolume c = new Command.CommandVolume(source, value);
+		Command.enqueue(c, source);
+		return c;
+	}
+
+	private static Command.CoalescableCommand pending(Source<?> source)
+	{
+		return source.getPendingSets().get(AL10.AL_GAIN);
+	}
+
+	public static void main(String[] args)
+	{
+		AudioSystem.setCommandCoalescing(true);
+		ManualSource source = new ManualSource(1);
+
+		Command.CommandVolume first = volume(source, 0.1f);
+		Check.that(pending(source) == first, "first SET pending");
+		long coalesced = AudioSystem.getCoalescedCommandNumber();
+		Command.CommandVolume second = volume(source, 0.2f);
+		Check.that(first.value == 0.2f, "value given to the pending SET");
+		Check.equal(coalesced + 1, AudioSystem.getCoalescedCommandNumber(), "coalesced commands");
+		Check.that(source.getVolume() == 0.2f, "shadow of the coalesced SET");
+		Check.that(!second.isEnded(), "coalesced SET ended before the pending one");
+		first.setEnded();
+		Check.that(second.isEnded(), "coalesced SET ended with the pending one");
+
+		first.take();
+		Command.CommandVolume third = volume(source, 0.3f);
+		Check.that(first.value == 0.2f && pending(source) == third, "SET coalesced into a taken one");
+
+		Command.enqueue(new Command.CommandFloat(source, AL10.AL_PITCH, 1.5f), source);
+		volume(source, 0.4f);
+		Check.that(third.value == 0.4f, "SET not coalesced after a SET of another property");
+
+		Command.enqueue(new Command.CommandPlay(source), source);
+		Check.that(source.getPendingSets().isEmpty(), "pending SETs kept after a play");
+		Command.CommandVolume afterPlay = volume(source, 0.5f);
+		Check.that(third.value == 0.4f && pending(source) == afterPlay, "SET coalesced across a play");
+
+		Batch batch = new Batch();
+		batch.setVolume(source, 0.6f).setPitch(source, 2);
+		Command.CommandBatch command = new Command.CommandBatch(batch);
+		Command.enqueue(command, command.sources, 0);
+		Check.that(source.getPendingSets().isEmpty(), "pending SETs kept after a batch");
+		Check.that(source.getVolume() == 0.6f && source.getPitch() == 2, "shadows of the batch");
+		volume(source, 0.7f);
+		Check.that(afterPlay.value == 0.5f, "SET coalesced across a batch");
+
+		AudioSystem.setCommandCoalescing(false);
+		Command.CommandVolume disabled = volume(source, 0.8f);
+		Check.that(pending(source) != disabled, "SET pending while coalescing is disabled");
+		System.out.println("CoalescingTest OK");
+	}
+}
@@ -0,0 +1,115 @@
+package audio;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Decodes generated MPEG-1 Layer I frames : the floats of the synthesis filter, their 16 bits conversion,
+ * and the samples after a seek
+ * Layer I frames are simple enough to be written here, their subband samples are random
+ */
+public class CodecMP3Test
+{
+	static final int FRAME_SAMPLES = 384,
+					 FRAME_BYTES = 384;
+
+	/**
+	 * @return frames of a mono stream at 48 kHz and 384 kbps, the 8 lowest subbands with 4 bits samples
+	 */
+	static byte[] layerI(int frames, long seed)
+	{
+		Random random = new Random(seed);
+		byte[] datas = new byte[frames * FRAME_BYTES];
+		for (int f=0;f<frames;f++)
+		{
+			BitWriter w = new BitWriter(datas, f * FRAME_BYTES);
+			w.write(0xFFFFC4C0L, 32); // Sync, MPEG-1, Layer I, no CRC, 384 kbps, 48 kHz, mono
+			for (int sb=0;sb<32;sb++)
+				w.write(sb < 8 ? 3 : 0, 4); // Allocation
+			for (int sb=0;sb<8;sb++)
+				w.write(10 + random.nextInt(30), 6); // Scalefactor
+			for (int i=0;i<12;i++)
+				for (int sb=0;sb<8;sb++)
+					w.write(random.nextInt(15), 4);
+		}
+		return datas;
+	}
+
+	private static class BitWriter
+	{
+		private final byte[] datas;
+		private int bit;
+
+		BitWriter(byte[] datas, int offset)
+		{
+			this.datas = datas;
+			this.bit = offset * 8;
+		}
+		void write(long value, int bits)
+		{
+			for (int i=bits-1;i>=0;i--, this.bit++)
+				if ((value >> i & 1) != 0)
+					this.datas[this.bit / 8] |= 0x80 >> (this.bit % 8);
+		}
+	}
+
+	static float[] decode(Codec codec)
+	{
+		AudioBuffer all = codec.readAll();
+		ByteBuffer b = (all.isDirect() ? all.getDirectData() : ByteBuffer.wrap(all.getAudioDatas(), 0, all.getLimit())).order(ByteOrder.nativeOrder());
+		int bits = codec.getBitsPerSample();
+		float[] samples = new float[all.getLimit() * 8 / bits];
+		for (int i=0;i<samples.length;i++)
+			samples[i] = bits == 32 ? b.getFloat(i * 4) : b.getShort(i * 2) / 32767f;
+		return samples;
+	}
+
+	private static void testOutput() throws IOException
+	{
+		byte[] stream = layerI(20, 1);
+		CodecMP3 floats = new CodecMP3(new ByteArrayInputStream(stream), true),
+				 shorts = new CodecMP3(new ByteArrayInputStream(stream), false);
+		Check.equal(1, floats.getChannelsNumber(), "channels");
+		Check.equal(48000, floats.getSamplerate(), "samplerate");
+		Check.equal(32, floats.getBitsPerSample(), "bits of the float output");
+		Check.equal(16, shorts.getBitsPerSample(), "bits of the 16 bits output");
+
+		float[] f = decode(floats), s = decode(shorts);
+		Check.that(floats.isStreamOver(), "stream over");
+		Check.equal(20 * FRAME_SAMPLES, f.length, "samples decoded");
+		double peak = 0;
+		for (int i=0;i<f.length;i++)
+			peak = Math.max(peak, Math.abs(f[i]));
+		Check.that(peak > 0.01 && peak < 1, "peak of the decoded floats : "+peak);
+		Check.close(f, s, 1 / 32767f, "16 bits output");
+	}
+
+	/**
+	 * A seek gives the same samples as a decoding from the start, also just after the skipped frames
+	 */
+	private static void testSeek() throws IOException
+	{
+		byte[] stream = layerI(20, 2);
+		float[] all = decode(new CodecMP3(new ByteArrayInputStream(stream), true));
+		for (int offset : new int[]{0, 100, FRAME_SAMPLES, FRAME_SAMPLES + 1, 1000, 3 * FRAME_SAMPLES, 5000, 19 * FRAME_SAMPLES + 10})
+		{
+			CodecMP3 codec = new CodecMP3(new ByteArrayInputStream(stream), true);
+			Check.that(codec.seek(offset), "seek to "+offset);
+			Check.close(Arrays.copyOfRange(all, offset, all.length), decode(codec), 0, "samples after a seek to "+offset);
+		}
+		CodecMP3 codec = new CodecMP3(new ByteArrayInputStream(stream), true);
+		Check.that(!codec.seek(all.length + 1), "seek after the end");
+		Check.that(codec.isStreamOver(), "stream over after the end");
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		testOutput();
+		testSeek();
+		System.out.println("CodecMP3Test OK");
+	}
+}
@@ -0,0 +1,62 @@
+package audio;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Decodes the ogg file of the repository with JOrbis : the floats it synthesizes, their 16 bits conversion,
+ * and the samples after a seek
+ */
+public class CodecOggTest
+{
+	static final File FILE = new File("FormatFactorypouic.ogg");
+
+	private static void testOutput() throws IOException
+	{
+		CodecOgg floats = new CodecOgg(new FileInputStream(FILE), true),
+				 shorts = new CodecOgg(new FileInputStream(FILE), false);
+		Check.equal(2, floats.getChannelsNumber(), "channels");
+		Check.equal(44100, floats.getSamplerate(), "samplerate");
+		Check.equal(32, floats.getBitsPerSample(), "bits of the float output");
+		Check.equal(16, shorts.getBitsPerSample(), "bits of the 16 bits output");
+
+		float[] f = CodecMP3Test.decode(floats), s = CodecMP3Test.decode(shorts);
+		Check.that(floats.isStreamOver() && shorts.isStreamOver(), "stream over");
+		Check.that(f.length > 44100 * 2, "samples decoded : "+f.length);
+		double peak = 0;
+		for (int i=0;i<f.length;i++)
+			peak = Math.max(peak, Math.abs(f[i]));
+		Check.that(peak > 0.5 && peak <= 1, "peak of the decoded floats : "+peak);
+		Check.close(f, s, 1 / 32767f, "16 bits output");
+		floats.quit();
+		shorts.quit();
+	}
+
+	/**
+	 * Vorbis is decoded up to the offset, the samples after it are the ones of a decoding from the start
+	 */
+	private static void testSeek() throws IOException
+	{
+		float[] all = CodecMP3Test.decode(new CodecOgg(new FileInputStream(FILE), true));
+		int channels = 2;
+		for (int offset : new int[]{0, 1, 4095, 4096, 44100, all.length / channels - 10})
+		{
+			CodecOgg codec = new CodecOgg(new FileInputStream(FILE), true);
+			Check.that(codec.seek(offset), "seek to "+offset);
+			Check.close(Arrays.copyOfRange(all, offset * channels, all.length), CodecMP3Test.decode(codec), 0, "samples after a seek to "+offset);
+			codec.quit();
+		}
+		CodecOgg codec = new CodecOgg(new FileInputStream(FILE), true);
+		Check.that(!codec.seek(all.length / channels + 1), "seek after the end");
+		codec.quit();
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		testOutput();
+		testSeek();
+		System.out.println("CodecOggTest OK");
+	}
+}
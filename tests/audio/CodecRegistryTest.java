@@ -0,0 +1,138 @@
+package audio;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import util.ByteArrayStreamSource;
+import util.InputStreamSource;
+
+/**
+ * Probes streams from their first bytes : the registered formats, the fallback to wav,
+ * the codecs registered later, and the streams given back to the codec from their start
+ */
+public class CodecRegistryTest
+{
+	/**
+	 * Never registered, so created by reflection
+	 */
+	static class ReflectedCodec extends SineCodec
+	{
+		public ReflectedCodec(InputStream is)
+		{
+			super(44100, 1, 16, 0, 440);
+		}
+	}
+
+	private static Codec newSine(InputStream is)
+	{
+		return new SineCodec(44100, 1, 16, 0, 440);
+	}
+
+	private static boolean startsWith(byte[] header, String magic)
+	{
+		return header.length >= magic.length() && new String(header, 0, magic.length()).equals(magic);
+	}
+
+	private static byte[] header(int... bytes)
+	{
+		byte[] b = new byte[bytes.length];
+		for (int i=0;i<b.length;i++)
+			b[i] = (byte)bytes[i];
+		return b;
+	}
+
+	private static byte[] concat(String start, byte[] end)
+	{
+		byte[] b = Arrays.copyOf(start.getBytes(), start.length() + end.length);
+		System.arraycopy(end, 0, b, start.length(), end.length);
+		return b;
+	}
+
+	private static Class<? extends Codec> detect(byte[] datas) throws IOException
+	{
+		InputStreamSource source = new ByteArrayStreamSource(datas);
+		InputStream is = CodecRegistry.peekable(source.getStreamBack());
+		Class<? extends Codec> c = CodecRegistry.detect(source, is);
+		byte[] start = new byte[datas.length];
+		int read = 0, cnt;
+		while (read < start.length && (cnt = is.read(start, read, start.length - read)) > 0)
+			read += cnt;
+		Check.that(Arrays.equals(datas, start), "stream moved back to its start");
+		return c;
+	}
+
+	private static void testFormats() throws IOException
+	{
+		Check.that(detect(concat("RIFF", concat("\0\0\0\0WAVEfmt ", new byte[32]))) == CodecWav.class, "wav");
+		Check.that(detect(concat("OggS", new byte[20])) == CodecOgg.class, "ogg");
+		Check.that(detect(concat("ID3", new byte[20])) == CodecMP3.class, "mp3 with tags");
+		Check.that(detect(header(0xFF, 0xFB, 0x90, 0x64, 0, 0)) == CodecMP3.class, "mp3 frame");
+		Check.that(detect("Ogg".getBytes()) == CodecWav.class, "stream shorter than the magic");
+		Check.that(detect("unknown format".getBytes()) == CodecWav.class, "unknown format");
+	}
+
+	/**
+	 * A stream which can't be moved back is buffered so its first bytes are read again
+	 */
+	private static void testPeekable() throws IOException
+	{
+		byte[] datas = concat("OggS", new byte[100]);
+		InputStream plain = new FilterInputStream(new ByteArrayInputStream(datas))
+		{
+			@Override
+			public boolean markSupported()
+			{
+				return false;
+			}
+		};
+		InputStream is = CodecRegistry.peekable(plain);
+		Check.that(is != plain, "stream without mark buffered");
+		Check.that(CodecRegistry.detect(new ByteArrayStreamSource(datas), is) == CodecOgg.class, "buffered stream");
+		Check.equal('O', is.read(), "first byte read again");
+	}
+
+	private static void testDetected() throws IOException
+	{
+		ByteArrayStreamSource keyed = new ByteArrayStreamSource(concat("OggS", new byte[20]), "keyed");
+		Check.that(CodecRegistry.getDetected(keyed) == null, "detected before the probe");
+		CodecRegistry.detect(keyed, keyed.getStreamBack());
+		Check.that(CodecRegistry.getDetected(keyed) == CodecOgg.class, "detected after the probe");
+
+		ByteArrayStreamSource unkeyed = new ByteArrayStreamSource(concat("OggS", new byte[20]));
+		CodecRegistry.detect(unkeyed, unkeyed.getStreamBack());
+		Check.that(CodecRegistry.getDetected(unkeyed) == null, "detected without key");
+
+		CodecRegistry.register(SineCodec.class, null, CodecRegistryTest::newSine);
+		Check.that(CodecRegistry.getDetected(keyed) == null, "detected once a codec is registered");
+	}
+
+	private static void testRegistered() throws Exception
+	{
+		CodecRegistry.register(SineCodec.class, h -> startsWith(h, "SINE") || startsWith(h, "OggS"), CodecRegistryTest::newSine);
+		Check.that(detect(concat("SINE", new byte[20])) == SineCodec.class, "registered codec");
+		Check.that(detect(concat("OggS", new byte[20])) == CodecOgg.class, "codec registered first");
+		Check.that(CodecRegistry.create(SineCodec.class, null) instanceof SineCodec, "codec created by its factory");
+
+		CodecRegistry.register(SineCodec.class, null, CodecRegistryTest::newSine);
+		Check.that(detect(concat("SINE", new byte[20])) == CodecWav.class, "codec registered without probe");
+	}
+
+	private static void testReflection() throws Exception
+	{
+		Check.that(CodecRegistry.create(ReflectedCodec.class, new ByteArrayInputStream(new byte[0])) instanceof ReflectedCodec,
+				"codec created by reflection");
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		testFormats();
+		testPeekable();
+		testDetected();
+		testRegistered();
+		testReflection();
+		System.out.println("CodecRegistryTest OK");
+	}
+}
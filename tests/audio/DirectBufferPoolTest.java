@@ -0,0 +1,83 @@
+package audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Borrows and releases buffers of the pool : size classes, reuse, buffers which aren't pooled,
+ * and the maximum of bytes kept while unused
+ */
+public class DirectBufferPoolTest
+{
+	private static void testSizeClasses()
+	{
+		ByteBuffer small = DirectBufferPool.borrow(1000);
+		Check.that(small.isDirect(), "direct buffer");
+		Check.that(small.order() == ByteOrder.nativeOrder(), "native order");
+		Check.equal(4096, small.capacity(), "smallest class");
+		Check.equal(1000, small.limit(), "limit");
+		Check.equal(0, small.position(), "position");
+
+		Check.equal(8192, DirectBufferPool.borrow(4097).capacity(), "class above 4 KB");
+		Check.equal(16 << 20, DirectBufferPool.borrow(16 << 20).capacity(), "biggest class");
+		Check.equal((16 << 20) + 1, DirectBufferPool.borrow((16 << 20) + 1).capacity(), "buffer above the classes");
+	}
+
+	private static void testReuse()
+	{
+		ByteBuffer first = DirectBufferPool.borrow(5000);
+		first.position(100);
+		DirectBufferPool.release(first);
+		Check.equal(8192, DirectBufferPool.getResidentBytes(), "bytes kept");
+
+		long hits = DirectBufferPool.getHits();
+		ByteBuffer second = DirectBufferPool.borrow(6000);
+		Check.that(second == first, "released buffer reused");
+		Check.equal(hits + 1, DirectBufferPool.getHits(), "hits");
+		Check.equal(0, second.position(), "position of the reused buffer");
+		Check.equal(6000, second.limit(), "limit of the reused buffer");
+		Check.equal(0, DirectBufferPool.getResidentBytes(), "bytes kept once borrowed");
+
+		long misses = DirectBufferPool.getMisses();
+		Check.that(DirectBufferPool.borrow(6000) != second, "a borrowed buffer isn't given twice");
+		Check.equal(misses + 1, DirectBufferPool.getMisses(), "misses");
+	}
+
+	private static void testNotPooled()
+	{
+		DirectBufferPool.release(ByteBuffer.allocate(4096));
+		DirectBufferPool.release(ByteBuffer.allocateDirect(4096).asReadOnlyBuffer());
+		DirectBufferPool.release(ByteBuffer.allocateDirect(5000));
+		DirectBufferPool.release(DirectBufferPool.borrow((16 << 20) + 1));
+		Check.equal(0, DirectBufferPool.getResidentBytes(), "heap, read-only, odd sized and too big buffers kept");
+	}
+
+	private static void testMaximum()
+	{
+		DirectBufferPool.setMaxResidentBytes(3 * 4096);
+		ByteBuffer[] buffers = new ByteBuffer[4];
+		for (int i=0;i<buffers.length;i++)
+			buffers[i] = DirectBufferPool.borrow(4096);
+		for (ByteBuffer b : buffers)
+			DirectBufferPool.release(b);
+		Check.equal(3 * 4096, DirectBufferPool.getResidentBytes(), "bytes kept at the maximum");
+
+		DirectBufferPool.trim(4096);
+		Check.equal(4096, DirectBufferPool.getResidentBytes(), "bytes kept once trimmed");
+		DirectBufferPool.setMaxResidentBytes(0);
+		Check.equal(0, DirectBufferPool.getResidentBytes(), "bytes kept without maximum");
+		DirectBufferPool.release(DirectBufferPool.borrow(4096));
+		Check.equal(0, DirectBufferPool.getResidentBytes(), "bytes kept without maximum");
+	}
+
+	public static void main(String[] args)
+	{
+		DirectBufferPool.setMaxResidentBytes(64L << 20);
+		testSizeClasses();
+		DirectBufferPool.trim(0);
+		testReuse();
+		testNotPooled();
+		testMaximum();
+		System.out.println("DirectBufferPoolTest OK");
+	}
+}
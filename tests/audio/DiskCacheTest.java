@@ -0,0 +1,84 @@
+package audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import util.ByteArrayStreamSource;
+import util.SingleInputStreamSource;
+
+/**
+ * Records the decoded datas of a stream in a temporary cache directory, then reads them back :
+ * files are found by the content of the stream, whatever its key, and only repeatable streams with a key are cached
+ */
+public class DiskCacheTest
+{
+	private static final int LENGTH = 20000;
+
+	private static SineCodec sine()
+	{
+		return new SineCodec(22050, 2, 16, LENGTH, 440);
+	}
+
+	private static byte[] readAll(Codec codec)
+	{
+		AudioBuffer all = codec.readAll();
+		if (all.isDirect())
+		{
+			byte[] b = new byte[all.getLimit()];
+			all.getDirectData().get(b);
+			return b;
+		}
+		return Arrays.copyOf(all.getAudioDatas(), all.getLimit());
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		File directory = Files.createTempDirectory("diskcache").toFile();
+		try
+		{
+			DiskCache.setDirectory(directory, 64L << 20);
+			byte[] encoded = "encoded datas of the stream".getBytes();
+			ByteArrayStreamSource source = new ByteArrayStreamSource(encoded, "first key");
+			Check.that(DiskCache.open(source, SineCodec.class) == null, "stream cached before its decoding");
+
+			Codec recorder = DiskCache.record(source, sine());
+			Check.that(recorder instanceof DiskCache.Recorder, "stream recorded");
+			byte[] decoded = readAll(recorder);
+			Check.equal(LENGTH * 4, decoded.length, "size decoded");
+			Check.equal(1, directory.listFiles().length, "files of the cache");
+			Check.equal(decoded.length + 44, DiskCache.getSize(), "size of the cache");
+
+			Codec cached = DiskCache.open(source, SineCodec.class);
+			Check.that(cached instanceof CodecWav, "stream cached after its decoding");
+			Check.equal(2, cached.getChannelsNumber(), "channels of the cached datas");
+			Check.equal(22050, cached.getSamplerate(), "samplerate of the cached datas");
+			Check.that(Arrays.equals(decoded, readAll(cached)), "cached datas");
+
+			Check.that(DiskCache.open(new ByteArrayStreamSource(encoded.clone(), "second key"), SineCodec.class) != null,
+					"same content with another key");
+			Check.that(DiskCache.open(new ByteArrayStreamSource("other datas".getBytes(), "third key"), SineCodec.class) == null,
+					"other content");
+
+			SineCodec codec = sine();
+			Check.that(DiskCache.record(new ByteArrayStreamSource(encoded), codec) == codec, "stream without key recorded");
+			Check.that(DiskCache.record(new SingleInputStreamSource(source.getStreamBack(), "single"), codec) == codec,
+					"stream read once recorded");
+
+			Codec aborted = DiskCache.record(new ByteArrayStreamSource("seeked datas".getBytes(), "seeked"), sine());
+			aborted.seek(1000);
+			readAll(aborted);
+			Check.equal(1, directory.listFiles().length, "files of the cache once a recorded codec has been moved");
+		}
+		finally
+		{
+			DiskCache.setDirectory(null, 0);
+			for (File f : directory.listFiles())
+				f.delete();
+			directory.delete();
+		}
+		System.out.println("DiskCacheTest OK");
+	}
+}
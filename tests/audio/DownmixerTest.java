@@ -0,0 +1,89 @@
+package audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Downmixes sines of 2 and 3 channels in each sample format :
+ * each mono sample must be the average of the channels, read whole or by small chunks
+ */
+public class DownmixerTest
+{
+	private static final int RATE = 44100,
+							 LENGTH = 10000;
+
+	private static SineCodec sine(int channels, int bits)
+	{
+		return new SineCodec(RATE, channels, bits, LENGTH, 440);
+	}
+
+	/**
+	 * @return the average of the channels of the sample, computed as the sine codec and the downmixer do
+	 */
+	private static double expected(SineCodec sine, int channels, int bits, int sample)
+	{
+		double v = sine.value(sample);
+		if (bits == 32)
+		{
+			float sum = 0;
+			for (int c=0;c<channels;c++)
+				sum += (float)(c % 2 == 0 ? v : -v);
+			return sum / channels;
+		}
+		long sum = 0;
+		for (int c=0;c<channels;c++)
+		{
+			double s = c % 2 == 0 ? v : -v;
+			sum += bits == 8 ? 128 + Math.round(s * 127) : Math.round(s * 32767);
+		}
+		return sum / channels;
+	}
+
+	private static double get(ByteBuffer datas, int bits, int sample)
+	{
+		if (bits == 8)
+			return datas.get(sample) & 0xFF;
+		if (bits == 16)
+			return datas.getShort(sample * 2);
+		return datas.getFloat(sample * 4);
+	}
+
+	private static void test(int channels, int bits) throws IOException
+	{
+		Codec mono = Downmixer.wrap(sine(channels, bits));
+		Check.equal(1, mono.getChannelsNumber(), "channels");
+		Check.equal(bits, mono.getBitsPerSample(), "bits");
+		Check.equal(LENGTH * bits / 8, mono.getTotalSize(), "total size");
+
+		AudioBuffer all = mono.readAll();
+		Check.equal(LENGTH * bits / 8, all.getLimit(), "size read");
+		ByteBuffer datas = ByteBuffer.wrap(all.getAudioDatas(), 0, all.getLimit()).order(ByteOrder.nativeOrder());
+		SineCodec reference = sine(channels, bits);
+		for (int i=0;i<LENGTH;i++)
+			Check.that(get(datas, bits, i) == expected(reference, channels, bits, i),
+					channels+" channels of "+bits+" bits, sample "+i+" : expected "+expected(reference, channels, bits, i)+" but was "+get(datas, bits, i));
+
+		Codec chunked = Downmixer.wrap(sine(channels, bits));
+		ByteBuffer b = ByteBuffer.allocate(LENGTH * bits / 8);
+		while (!chunked.isStreamOver())
+		{
+			int limit = Math.min(b.capacity(), b.position() + 77 * bits / 8);
+			b.limit(limit);
+			chunked.fill(b);
+		}
+		Check.that(Arrays.equals(Arrays.copyOf(all.getAudioDatas(), all.getLimit()), b.array()),
+				channels+" channels of "+bits+" bits, read by chunks");
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		SineCodec mono = sine(1, 16);
+		Check.that(Downmixer.wrap(mono) == mono, "mono codecs aren't wrapped");
+		for (int bits : new int[]{8, 16, 32})
+			for (int channels : new int[]{2, 3})
+				test(channels, bits);
+		System.out.println("DownmixerTest OK");
+	}
+}
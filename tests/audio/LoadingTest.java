@@ -0,0 +1,45 @@
+package audio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * Orders the loadings as the decoder pool runs them : earliest starving date first,
+ * then in creation order, and the loadings which aren't urgent last
+ */
+public class LoadingTest
+{
+	private static Loading loading(long starvingDate)
+	{
+		return new Loading(null, 0, false, starvingDate);
+	}
+
+	public static void main(String[] args)
+	{
+		long now = System.nanoTime();
+		Loading idle = loading(Loading.NOT_URGENT), late = loading(now + 1000000000L), first = loading(now),
+				second = loading(now), soon = loading(now - 1000000000L), idleLast = loading(Loading.NOT_URGENT);
+
+		Check.that(soon.compareTo(first) < 0 && first.compareTo(soon) > 0, "earliest starving date first");
+		Check.that(first.compareTo(second) < 0 && second.compareTo(first) > 0, "same dates in creation order");
+		Check.that(late.compareTo(idle) < 0 && idle.compareTo(late) > 0, "loadings not urgent last");
+		Check.that(idle.compareTo(idleLast) < 0, "loadings not urgent in creation order");
+		Check.equal(0, first.compareTo(first), "loading compared to itself");
+
+		List<Loading> expected = Arrays.asList(soon, first, second, late, idle, idleLast);
+		List<Loading> shuffled = new ArrayList<>(expected);
+		Collections.shuffle(shuffled);
+		PriorityBlockingQueue<Loading> queue = new PriorityBlockingQueue<>(shuffled);
+		List<Loading> polled = new ArrayList<>();
+		while (!queue.isEmpty())
+			polled.add(queue.poll());
+		Check.that(polled.equals(expected), "order of the queue");
+
+		Loading beforeWrap = loading(Long.MAX_VALUE - 10), afterWrap = loading(Long.MIN_VALUE + 10);
+		Check.that(beforeWrap.compareTo(afterWrap) < 0, "dates compared as nanoTime values once it wraps");
+		System.out.println("LoadingTest OK");
+	}
+}
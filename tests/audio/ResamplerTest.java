@@ -0,0 +1,86 @@
+package audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Resamples a sine of 100 whole periods from 44100 to 48000 Hz, at each quality :
+ * - the looped stream, rewound when over, must give the output of the same sine played twice
+ * - a seek must give the output of the whole stream from the offset
+ */
+public class ResamplerTest
+{
+	private static final int IN_RATE = 44100,
+							 OUT_RATE = 48000,
+							 LENGTH = 4410;
+	private static final double FREQUENCY = 1000,
+								TOLERANCE = 1e-6;
+
+	private static Resampler resampler(int length, int quality)
+	{
+		return new Resampler(new SineCodec(IN_RATE, 1, 32, length, FREQUENCY), OUT_RATE, quality);
+	}
+
+	/**
+	 * @return the samples read until the resampler is over, by chunks of chunkSize samples
+	 */
+	private static float[] read(Resampler resampler, int chunkSize) throws IOException
+	{
+		float[] samples = new float[0];
+		ByteBuffer chunk = ByteBuffer.allocate(chunkSize * 4).order(ByteOrder.nativeOrder());
+		while (!resampler.isStreamOver())
+		{
+			chunk.clear();
+			resampler.fill(chunk);
+			chunk.flip();
+			int offset = samples.length;
+			samples = Arrays.copyOf(samples, offset + chunk.remaining() / 4);
+			chunk.asFloatBuffer().get(samples, offset, samples.length - offset);
+		}
+		return samples;
+	}
+
+	private static float[] concat(float[] a, float[] b)
+	{
+		float[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
+	}
+
+	private static void testRewind(int quality) throws IOException
+	{
+		float[] continuous = read(resampler(2 * LENGTH, quality), 4096);
+		Check.equal(2L * LENGTH * OUT_RATE / IN_RATE, continuous.length, "continuous length");
+
+		Resampler looped = resampler(LENGTH, quality);
+		looped.setLooping(true);
+		float[] first = read(looped, 77);
+		Check.that(looped.rewind(), "rewind");
+		looped.setLooping(false);
+		Check.close(continuous, concat(first, read(looped, 77)), TOLERANCE, "rewind at quality "+quality);
+	}
+
+	private static void testSeek(int quality) throws IOException
+	{
+		float[] continuous = read(resampler(LENGTH, quality), 4096);
+		for (int offset : new int[]{1, 3, 1000, 2333})
+		{
+			Resampler seeked = resampler(LENGTH, quality);
+			Check.that(seeked.seek(offset), "seek");
+			Check.close(Arrays.copyOfRange(continuous, offset, continuous.length), read(seeked, 512), TOLERANCE,
+					"seek to "+offset+" at quality "+quality);
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		for (int quality : new int[]{AudioSystem.RESAMPLING_FAST, AudioSystem.RESAMPLING_MEDIUM, AudioSystem.RESAMPLING_BEST})
+		{
+			testRewind(quality);
+			testSeek(quality);
+		}
+		System.out.println("ResamplerTest OK");
+	}
+}
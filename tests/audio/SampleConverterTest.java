@@ -0,0 +1,176 @@
+package audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Converts known samples of each input format, from heap and direct buffers,
+ * and checks the dither only adds a noise of about one output step
+ */
+public class SampleConverterTest
+{
+	/**
+	 * @return the little endian bytes of the channels, of bytes each
+	 */
+	private static ByteBuffer input(int bytes, long... channels)
+	{
+		ByteBuffer in = ByteBuffer.allocate(channels.length * bytes);
+		for (long c : channels)
+			for (int b=0;b<bytes;b++)
+				in.put((byte)(c >> (8 * b)));
+		in.flip();
+		return in;
+	}
+
+	private static ByteBuffer floats(float... channels)
+	{
+		ByteBuffer in = ByteBuffer.allocate(channels.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for (float c : channels)
+			in.putFloat(c);
+		in.flip();
+		return in;
+	}
+
+	private static ByteBuffer direct(ByteBuffer heap)
+	{
+		ByteBuffer d = ByteBuffer.allocateDirect(heap.remaining());
+		d.put(heap.duplicate()).flip();
+		return d;
+	}
+
+	private static short[] toShorts(SampleConverter converter, ByteBuffer in)
+	{
+		int n = in.remaining() / converter.getInputBytes();
+		ByteBuffer out = ByteBuffer.allocateDirect(n * 2).order(ByteOrder.nativeOrder());
+		Check.equal(n, converter.convert(in, out), "channels converted");
+		short[] s = new short[n];
+		((ByteBuffer)out.flip()).asShortBuffer().get(s);
+		return s;
+	}
+
+	private static float[] toFloats(SampleConverter converter, ByteBuffer in)
+	{
+		int n = in.remaining() / converter.getInputBytes();
+		ByteBuffer out = ByteBuffer.allocate(n * 4).order(ByteOrder.nativeOrder());
+		Check.equal(n, converter.convert(in, out), "channels converted");
+		float[] f = new float[n];
+		((ByteBuffer)out.flip()).asFloatBuffer().get(f);
+		return f;
+	}
+
+	/**
+	 * Converts from a heap and a direct buffer, they use different loops for 24 bits
+	 */
+	private static void checkShorts(int bits, boolean inFloat, ByteBuffer in, short... expected)
+	{
+		SampleConverter converter = new SampleConverter(bits, inFloat, false, false);
+		for (ByteBuffer b : new ByteBuffer[]{in.duplicate(), direct(in)})
+		{
+			short[] s = toShorts(converter, b);
+			for (int i=0;i<expected.length;i++)
+				Check.equal(expected[i], s[i], bits+" bits to 16 bits, channel "+i);
+		}
+	}
+
+	private static void checkFloats(int bits, boolean inFloat, ByteBuffer in, float... expected)
+	{
+		float[] f = toFloats(new SampleConverter(bits, inFloat, true, false), in);
+		for (int i=0;i<expected.length;i++)
+			Check.that(f[i] == expected[i], bits+" bits to float, channel "+i+" : expected "+expected[i]+" but was "+f[i]);
+	}
+
+	private static void testFormats()
+	{
+		checkShorts(8, false, input(1, 0, 128, 255), Short.MIN_VALUE, (short)0, (short)32512);
+		checkShorts(16, false, input(2, -32768, -1, 0, 1, 32767), Short.MIN_VALUE, (short)-1, (short)0, (short)1, Short.MAX_VALUE);
+		checkShorts(24, false, input(3, 0x123456, -0x123456, 0x7FFFFF, -0x800000),
+				(short)(0x123456 >> 8), (short)(-0x123456 >> 8), Short.MAX_VALUE, Short.MIN_VALUE);
+		checkShorts(32, false, input(4, 0x12345678, -0x12345678, Integer.MIN_VALUE),
+				(short)(0x12345678 >> 16), (short)(-0x12345678 >> 16), Short.MIN_VALUE);
+		checkShorts(32, true, floats(0, 0.5f, -1, 2, -2), (short)0, (short)16384, (short)-32767, Short.MAX_VALUE, Short.MIN_VALUE);
+
+		checkFloats(8, false, input(1, 0, 128, 192), -1, 0, 0.5f);
+		checkFloats(16, false, input(2, -32768, 0, 16384), -1, 0, 0.5f);
+		checkFloats(24, false, input(3, -0x800000, 0, 0x400000), -1, 0, 0.5f);
+		checkFloats(32, false, input(4, Integer.MIN_VALUE, 0, 0x40000000), -1, 0, 0.5f);
+		checkFloats(32, true, floats(-1, 0.25f, 3), -1, 0.25f, 3);
+	}
+
+	/**
+	 * A constant between two output steps gives values around it, whose average is the constant
+	 */
+	private static void testDither()
+	{
+		int n = 100000, value = 0x123480; // Half way between 0x1234 and 0x1235
+		long[] channels = new long[n];
+		Arrays.fill(channels, value);
+		short[] s = toShorts(new SampleConverter(24, false, false, true), input(3, channels));
+
+		double sum = 0;
+		for (short v : s)
+		{
+			Check.that(Math.abs(v - value / 256.0) <= 1.5, "dither noise of "+(v - value / 256.0));
+			sum += v;
+		}
+		Check.that(Math.abs(sum / n - value / 256.0) < 0.05, "average of the dithered samples : "+sum / n);
+	}
+
+	/**
+	 * Only whole channels fitting in both buffers are converted
+	 */
+	private static void testPartial()
+	{
+		SampleConverter converter = new SampleConverter(16, false, false, false);
+		ByteBuffer in = ByteBuffer.allocate(21), out = ByteBuffer.allocate(8);
+		Check.equal(4, converter.convert(in, out), "channels converted");
+		Check.equal(8, in.position(), "input position");
+		Check.equal(8, out.position(), "output position");
+		Check.equal(6, converter.convert(in, ByteBuffer.allocate(100)), "channels left");
+		Check.equal(1, in.remaining(), "incomplete channel left");
+	}
+
+	/**
+	 * Planar channels of decoders, each from its own offset, are interleaved as far as dest allows
+	 */
+	private static void testInterleave()
+	{
+		float[][] channels = {{9, 0.5f, -0.25f, 1}, {9, 9, -1, 0.75f, 2}};
+		int[] offsets = {1, 2};
+
+		ByteBuffer floats = ByteBuffer.allocate(20);
+		Check.equal(2, new SampleConverter(32, true, true, false).interleave(channels, offsets, 3, floats), "samples interleaved");
+		Check.equal(16, floats.position(), "position once interleaved");
+		float[] f = new float[4];
+		((ByteBuffer)floats.flip()).order(ByteOrder.nativeOrder()).asFloatBuffer().get(f);
+		Check.close(new float[]{0.5f, -1, -0.25f, 0.75f}, f, 0, "floats interleaved");
+
+		ByteBuffer shorts = ByteBuffer.allocateDirect(100);
+		Check.equal(3, new SampleConverter(32, true, false, false).interleave(channels, offsets, 3, shorts), "samples interleaved");
+		short[] s = new short[6];
+		((ByteBuffer)shorts.flip()).order(ByteOrder.nativeOrder()).asShortBuffer().get(s);
+		Check.that(Arrays.equals(new short[]{16384, -32767, -8192, 24575, 32767, Short.MAX_VALUE}, s),
+				"16 bits interleaved : "+Arrays.toString(s));
+	}
+
+	private static void testUnsupported()
+	{
+		for (int[] format : new int[][]{{12, 0}, {16, 1}, {24, 1}})
+			try
+			{
+				new SampleConverter(format[0], format[1] == 1, false, false);
+				throw new AssertionError(format[0]+" bits"+(format[1] == 1 ? " float" : "")+" accepted");
+			}
+			catch (IllegalArgumentException e) {}
+	}
+
+	public static void main(String[] args)
+	{
+		testFormats();
+		testDither();
+		testPartial();
+		testInterleave();
+		testUnsupported();
+		System.out.println("SampleConverterTest OK");
+	}
+}
@@ -0,0 +1,119 @@
+package audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Gives a sine wave without any stream, inverted on the odd channels : the average of two channels is silent
+ * Used by the tests as the codec under the converters
+ */
+class SineCodec extends Codec
+{
+	private final int samplerate, channels, bits, length;
+	private final double frequency;
+	private int position = 0;
+
+	/**
+	 * @param length the number of samples of the stream
+	 * @param frequency in Hz, the amplitude is 0.5
+	 */
+	SineCodec(int samplerate, int channels, int bits, int length, double frequency)
+	{
+		super(null);
+		this.samplerate = samplerate;
+		this.channels = channels;
+		this.bits = bits;
+		this.length = length;
+		this.frequency = frequency;
+	}
+
+	/**
+	 * @return the value of the first channel of the sample, between -0.5 and 0.5
+	 */
+	double value(int sample)
+	{
+		return 0.5 * Math.sin(2 * Math.PI * this.frequency * sample / this.samplerate);
+	}
+
+	@Override
+	void fill(ByteBuffer dest)
+	{
+		ByteBuffer out = dest.duplicate().order(ByteOrder.nativeOrder());
+		while (out.remaining() >= this.getSampleSize() && this.position < this.length)
+		{
+			double sine = this.value(this.position++);
+			for (int c=0;c<this.channels;c++)
+			{
+				double v = c % 2 == 0 ? sine : -sine;
+				if (this.bits == 8)
+					out.put((byte)(128 + Math.round(v * 127)));
+				else if (this.bits == 16)
+					out.putShort((short)Math.round(v * 32767));
+				else
+					out.putFloat((float)v);
+			}
+		}
+		dest.position(out.position());
+	}
+
+	@Override
+	AudioBuffer readAll()
+	{
+		return this.readChunks();
+	}
+
+	@Override
+	boolean canSeek()
+	{
+		return true;
+	}
+
+	@Override
+	boolean seek(int sampleOffset)
+	{
+		this.position = Math.min(this.position + sampleOffset, this.length);
+		return this.position < this.length;
+	}
+
+	@Override
+	boolean rewind()
+	{
+		this.position = 0;
+		return true;
+	}
+
+	@Override
+	boolean isStreamOver()
+	{
+		return this.position >= this.length;
+	}
+
+	@Override
+	void quit()
+	{
+	}
+
+	@Override
+	public int getChannelsNumber()
+	{
+		return this.channels;
+	}
+
+	@Override
+	public int getSamplerate()
+	{
+		return this.samplerate;
+	}
+
+	@Override
+	public int getBitsPerSample()
+	{
+		return this.bits;
+	}
+
+	@Override
+	public int getTotalSize()
+	{
+		return this.length * this.getSampleSize();
+	}
+}
@@ -0,0 +1,152 @@
+package audio;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import util.ByteArrayStreamSource;
+
+/**
+ * Shares the datas of sound sources by their key, and deletes the unused entries least recently used first
+ * The loadings never run and the buffers are retained once more by the test, so no OpenAL device is needed
+ */
+public class SoundCacheTest
+{
+	private static int ids = 2000;
+
+	private static SoundSource load(String key)
+	{
+		SoundSource source = new SoundSource(ids++, new ByteArrayStreamSource(key.getBytes(), key), 4096, CodecWav.class, false);
+		SoundCache.load(source);
+		return source;
+	}
+
+	/**
+	 * Gives its datas to the entry of the source, then releases the source
+	 */
+	private static AudioBuffer loaded(SoundSource source, int size)
+	{
+		AudioBuffer buffer = new AudioBuffer(new byte[size], size, null);
+		buffer.setOpenALBufferID(source.getOpenALSourceID());
+		BufferRegistry.retain(buffer); // Kept by the test, the cache never deletes it
+		SoundCache.Entry entry = source.getCacheEntry();
+		SoundCache.loaded(entry, buffer);
+		SoundCache.release(entry, source);
+		return buffer;
+	}
+
+	private static void testKeys()
+	{
+		ByteArrayStreamSource keyed = new ByteArrayStreamSource(new byte[0], "key");
+		Check.that(SoundCache.getKey(keyed, 4096, CodecWav.class, false)
+				.equals(SoundCache.getKey(new ByteArrayStreamSource(new byte[1], "key"), 4096, CodecWav.class, false)), "same key");
+		Check.that(!SoundCache.getKey(keyed, 4096, CodecWav.class, false).equals(SoundCache.getKey(keyed, 8192, CodecWav.class, false)),
+				"other buffer size");
+		Check.that(!SoundCache.getKey(keyed, 4096, CodecWav.class, false).equals(SoundCache.getKey(keyed, 4096, CodecOgg.class, false)),
+				"other codec");
+		Check.that(!SoundCache.getKey(keyed, 4096, CodecWav.class, false).equals(SoundCache.getKey(keyed, 4096, CodecWav.class, true)),
+				"downmixed");
+		Check.that(SoundCache.getKey(new ByteArrayStreamSource(new byte[0]), 4096, CodecWav.class, false) == null, "stream without key");
+	}
+
+	private static void testEviction()
+	{
+		long hits = SoundCache.getHits(), misses = SoundCache.getMisses();
+		SoundSource first = load("first"), second = load("second"), third = load("third");
+		Check.equal(misses + 3, SoundCache.getMisses(), "misses");
+		Check.that(first.isSourceLoading() && first.getCacheEntry() != null, "loader of a new entry");
+
+		SoundSource waiting = load("first"); // Also the most recently used entry
+		Check.equal(hits + 1, SoundCache.getHits(), "hits");
+		Check.that(waiting.getCacheEntry() == first.getCacheEntry(), "entry shared");
+		Check.that(waiting.isSourceLoading(), "source waiting for the loader");
+		SoundCache.release(waiting.getCacheEntry(), waiting);
+
+		SoundCache.setMaxSize(3000);
+		AudioBuffer b2 = loaded(second, 1000), b3 = loaded(third, 1000), b1 = loaded(first, 1000);
+		Check.equal(3000, SoundCache.getSize(), "size of the cache");
+		Check.equal(2, BufferRegistry.getUse(b2.getOpenALBufferID()), "users of a cached buffer");
+
+		SoundCache.setMaxSize(2000);
+		Check.equal(2000, SoundCache.getSize(), "size once evicted");
+		Check.equal(1, BufferRegistry.getUse(b2.getOpenALBufferID()), "least recently used entry kept");
+		Check.equal(2, BufferRegistry.getUse(b3.getOpenALBufferID()), "more recent entry evicted");
+		Check.equal(2, BufferRegistry.getUse(b1.getOpenALBufferID()), "recently used entry evicted");
+
+		misses = SoundCache.getMisses();
+		load("second");
+		Check.equal(misses + 1, SoundCache.getMisses(), "evicted entry found");
+	}
+
+	/**
+	 * A failed loading gives the loading to the next waiting source, and the last one removes the entry
+	 */
+	private static void testFailure()
+	{
+		SoundSource loader = load("broken"), waiting = load("broken");
+		SoundCache.Entry entry = loader.getCacheEntry();
+		SoundCache.failed(entry, waiting);
+		Check.that(waiting.getCacheEntry() == entry, "failure of a source which isn't the loader");
+
+		int depth = DecoderPool.getQueueDepth();
+		SoundCache.failed(entry, loader);
+		Check.that(loader.getCacheEntry() == null, "failed loader still in the entry");
+		Check.that(waiting.getCacheEntry() == entry && waiting.isSourceLoading(), "waiting source loading in place of the loader");
+		Check.equal(depth + 1, DecoderPool.getQueueDepth(), "loadings started");
+
+		long hits = SoundCache.getHits();
+		SoundSource late = load("broken");
+		Check.equal(hits + 1, SoundCache.getHits(), "entry kept for the new loader");
+		SoundCache.release(entry, late);
+
+		SoundCache.failed(entry, waiting);
+		long misses = SoundCache.getMisses();
+		load("broken");
+		Check.equal(misses + 1, SoundCache.getMisses(), "entry kept once all its loadings have failed");
+	}
+
+	/**
+	 * A source waiting for the loader of its entry is created once the loader has opened its codec
+	 */
+	private static void testOpened()
+	{
+		SoundSource loader = load("opened"), waiting = load("opened");
+		CompletableFuture<SoundSource> created = waiting.whenOpened();
+		Check.that(!created.isDone(), "source created before its codec is opened");
+		loader.setCodecDatas(new SineCodec(22050, 2, 16, 1000, 440));
+		Check.that(created.isDone() && created.join() == waiting, "source not created once the codec of its loader is opened");
+		Check.equal(22050, waiting.getSampleRate(), "samplerate given by the loader");
+		Check.equal(2, waiting.getNumberOfChannel(), "channels given by the loader");
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+		CountDownLatch started = new CountDownLatch(1);
+		executor.execute(() -> {
+			started.countDown();
+			try
+			{
+				new CountDownLatch(1).await();
+			}
+			catch (InterruptedException e) {}
+		});
+		started.await();
+		DecoderPool.setExecutor(executor);
+		try
+		{
+			testKeys();
+			testEviction();
+			testFailure();
+			testOpened();
+		}
+		finally
+		{
+			executor.shutdownNow(); // The loadings never run
+			DecoderPool.setExecutor(null);
+		}
+		System.out.println("SoundCacheTest OK");
+	}
+}